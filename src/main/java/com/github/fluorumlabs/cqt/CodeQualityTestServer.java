@@ -23,6 +23,9 @@
 
 package com.github.fluorumlabs.cqt;
 
+import com.github.fluorumlabs.cqt.annotations.Level;
+import com.github.fluorumlabs.cqt.internals.HeapDump;
+import com.github.fluorumlabs.cqt.internals.ScanMetrics;
 import com.github.fluorumlabs.cqt.internals.ScopeDetector;
 import com.github.fluorumlabs.cqt.suites.ResourceManagementInspections;
 import com.sun.net.httpserver.HttpExchange;
@@ -37,21 +40,32 @@ import com.github.fluorumlabs.cqt.suites.FieldInspections;
 import com.github.fluorumlabs.cqt.suites.LambdaInspections;
 import com.github.fluorumlabs.cqt.utils.HtmlFormatter;
 
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -65,20 +79,65 @@ public class CodeQualityTestServer {
 
     private static final int DEFAULT_PORT = 8777;
 
+    private static final DateTimeFormatter SNAPSHOT_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static final int DEFAULT_KEPT_SNAPSHOTS = 10;
+
     private final List<Supplier<Object>> scanTargets = new ArrayList<>();
 
+    private final Map<String, Double> samplingRates = new HashMap<>();
+
     private final Map<Class<?>, String> scopeHints = new HashMap<>();
 
     private final List<Supplier<Suite>> suites = new ArrayList<>();
 
+    @Nullable
+    private Path bytecodeCacheDirectory;
+
     private Path cqtIgnoreRoot = Paths.get("");
 
     private Predicate<Class<?>> excludes = x -> false;
 
+    @Nullable
+    private Path heapDumpFile;
+
     private Predicate<Class<?>> includes = x -> false;
 
+    @Nullable
+    private Path snapshotDirectory;
+
+    @Nullable
+    private Path snapshotFile;
+
+    private Predicate<Class<?>> skips = x -> false;
+
+    private boolean incrementalRescan;
+
+    private boolean initializeHeapDumpClasses;
+
+    private boolean initializeSnapshotClasses;
+
+    private int keptSnapshots = DEFAULT_KEPT_SNAPSHOTS;
+
+    private long maxGraphBytes = Long.MAX_VALUE;
+
+    private int maxGraphObjects = Integer.MAX_VALUE;
+
+    private long maxSampledInstances = Long.MAX_VALUE;
+
+    private double dutyCycle = 1;
+
+    private Duration maxSlice = Duration.ofMillis(10);
+
+    private int parallelism = 1;
+
     private int port = DEFAULT_PORT;
 
+    @Nullable
+    private Duration scanInterval;
+
+    private boolean weakRetention;
+
     /**
      * Configure location of {@code .cqtignore} file
      *
@@ -115,6 +174,20 @@ public class CodeQualityTestServer {
         return this;
     }
 
+    /**
+     * Configure location of persistent bytecode analysis cache. Facts
+     * collected from bytecode of classes are kept there between restarts
+     * and are reused for classes with unchanged bytes.
+     *
+     * @param path the cache directory
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer bytecodeCacheDirectory(Path path) {
+        this.bytecodeCacheDirectory = path;
+        return this;
+    }
+
     /**
      * Configure scanner to exclude specific classes from the report.
      *
@@ -181,6 +254,53 @@ public class CodeQualityTestServer {
         return this;
     }
 
+    /**
+     * Run scans periodically on a low-priority daemon thread. Web UI serves
+     * results of the last completed scan and does not wait for a running
+     * one. The first scan starts immediately after server start.
+     *
+     * @param interval the delay between end of one scan and start of the
+     *                 next one
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer scanEvery(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Scan interval must be positive");
+        }
+        this.scanInterval = interval;
+        return this;
+    }
+
+    /**
+     * Configure scanner to skip instances of specific classes: they are
+     * neither traversed nor reported.
+     *
+     * @param filter the filter
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer skip(Predicate<Class<?>> filter) {
+        skips = skips.or(filter);
+        return this;
+    }
+
+    /**
+     * Configure scanner to skip instances of classes of specified packages:
+     * they are neither traversed nor reported.
+     *
+     * @param strings the package names
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer skipPackages(String... strings) {
+        return skip(clazz -> Stream
+                .of(strings)
+                .anyMatch(p -> clazz
+                        .getName()
+                        .startsWith(p)));
+    }
+
     /**
      * Configure scanner to scan specific objects instead of class loaders.
      *
@@ -209,9 +329,14 @@ public class CodeQualityTestServer {
                         new InetSocketAddress(port),
                         0
                 );
+                MyHandler handler = new MyHandler();
+                if (scanInterval != null) {
+                    handler.scheduleScans(scanInterval);
+                }
+                registerMBean(handler);
                 server.createContext(
                         "/",
-                        new MyHandler()
+                        handler
                 );
                 server.setExecutor(Executors.newFixedThreadPool(5));
                 server.start();
@@ -259,6 +384,22 @@ public class CodeQualityTestServer {
         }
     }
 
+    private static void registerMBean(CodeQualityTestServerMXBean bean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(
+                            bean,
+                            CodeQualityTestServerMXBean.class,
+                            true
+                    ),
+                    new ObjectName(CodeQualityTestServerMXBean.OBJECT_NAME)
+            );
+        } catch (JMException e) {
+            System.err.println("Error registering CQT MBean");
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Hint scope detector of scope for specified class.
      *
@@ -275,6 +416,235 @@ public class CodeQualityTestServer {
         return this;
     }
 
+    /**
+     * Configure scanner to rescan incrementally: objects which references did
+     * not change since the previous scan are not inspected again. Object graph
+     * of the previous scan is kept in memory between scans.
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withIncrementalRescan() {
+        this.incrementalRescan = true;
+        return this;
+    }
+
+    /**
+     * Configure memory budget of scanner. When scanned object graph exceeds
+     * any of the limits, its edges and indexes are moved to memory-mapped
+     * temporary files and scan continues. Not limited by default.
+     *
+     * @param maxObjects the max number of visited objects
+     * @param maxBytes   the max estimated heap size of object graph in bytes
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withMemoryBudget(int maxObjects, long maxBytes) {
+        if (maxObjects < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        this.maxGraphObjects = maxObjects;
+        this.maxGraphBytes   = maxBytes;
+        return this;
+    }
+
+    /**
+     * Configure scanner to visit at most specified number of instances of
+     * every application class. Instances of JDK classes are not limited.
+     * Report counts become estimates when instances are skipped.
+     *
+     * @param maxInstances the max number of instances per class
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withSampling(long maxInstances) {
+        if (maxInstances < 1) {
+            throw new IllegalArgumentException("Max instances must be positive");
+        }
+        this.maxSampledInstances = maxInstances;
+        return this;
+    }
+
+    /**
+     * Configure scanner to visit only a share of instances of classes from
+     * package and its subpackages. Report counts become estimates when
+     * instances are skipped.
+     *
+     * @param packageName the package name
+     * @param rate        the share of visited instances, from {@code 0}
+     *                    (exclusive) to {@code 1}
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withSamplingRate(String packageName, double rate) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Sampling rate must be in (0, 1] range");
+        }
+        samplingRates.put(
+                packageName,
+                rate
+        );
+        return this;
+    }
+
+    /**
+     * Configure scanner to limit its CPU usage. Each scanner thread works for
+     * at most {@code maxSlice} and then pauses, so that all scanner threads
+     * together are busy only {@code dutyCycle} share of time of a single
+     * core. For example, {@code withThrottling(0.1, Duration.ofMillis(10))}
+     * makes the scanner use at most 10% of one core, regardless of {@link
+     * CodeQualityTestServer#withParallelism(int)}.
+     *
+     * @param dutyCycle the share of time spent scanning, from {@code 0}
+     *                  (exclusive) to {@code 1} (no throttling)
+     * @param maxSlice  the max length of uninterrupted work
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withThrottling(double dutyCycle, Duration maxSlice) {
+        if (!(dutyCycle > 0 && dutyCycle <= 1)) {
+            throw new IllegalArgumentException("Duty cycle must be in (0, 1] range");
+        }
+        if (maxSlice.isNegative() || maxSlice.isZero()) {
+            throw new IllegalArgumentException("Max slice must be positive");
+        }
+        this.dutyCycle = dutyCycle;
+        this.maxSlice  = maxSlice;
+        return this;
+    }
+
+    /**
+     * Configure scanner to traverse object graph using specified number of
+     * threads. Defaults to {@code 1}, i.e. traversal is done on the request
+     * thread.
+     *
+     * @param parallelism the number of threads
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Configure scanner to drop strong references to scanned objects once
+     * results are rendered, so that scanned heap can be garbage collected
+     * between scans. Combined with {@link
+     * CodeQualityTestServer#withIncrementalRescan()}, the object graph is
+     * kept weakly and only objects which are still alive are reused.
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withWeakRetention() {
+        this.weakRetention = true;
+        return this;
+    }
+
+    /**
+     * Configure scanner to analyze HPROF heap dump instead of objects of
+     * current JVM. Application classes and their bytecode are taken from
+     * context class loader, so the server should be started with
+     * application jars on class path. Dump is indexed on first scan.
+     *
+     * @param heapDumpFile the heap dump file
+     *
+     * @return the code quality test server
+     */
+    public CodeQualityTestServer withHeapDump(Path heapDumpFile) {
+        this.heapDumpFile = heapDumpFile;
+        return this;
+    }
+
+    /**
+     * Configure scanner to analyze HPROF heap dump, allowing static
+     * initializers of application classes to run when their instances are
+     * rebuilt. By default, instances of classes which are not initialized
+     * are not rebuilt.
+     *
+     * @param heapDumpFile      the heap dump file
+     * @param initializeClasses {@code true} to initialize classes
+     *
+     * @return the code quality test server
+     * @see CodeQualityTestServer#withHeapDump(Path)
+     */
+    public CodeQualityTestServer withHeapDump(Path heapDumpFile, boolean initializeClasses) {
+        this.heapDumpFile              = heapDumpFile;
+        this.initializeHeapDumpClasses = initializeClasses;
+        return this;
+    }
+
+    /**
+     * Configure scanner to analyze object graph snapshot instead of objects
+     * of current JVM. As with heap dumps, application classes and their
+     * bytecode are taken from context class loader.
+     *
+     * @param snapshotFile the snapshot file
+     *
+     * @return the code quality test server
+     * @see CodeQualityTestServer#withSnapshotDirectory(Path)
+     */
+    public CodeQualityTestServer withSnapshot(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        return this;
+    }
+
+    /**
+     * Configure scanner to analyze object graph snapshot, allowing static
+     * initializers of application classes to run when their objects are
+     * rebuilt. By default, objects of classes which are not initialized are
+     * not rebuilt.
+     *
+     * @param snapshotFile      the snapshot file
+     * @param initializeClasses {@code true} to initialize classes
+     *
+     * @return the code quality test server
+     * @see CodeQualityTestServer#withSnapshot(Path)
+     */
+    public CodeQualityTestServer withSnapshot(Path snapshotFile, boolean initializeClasses) {
+        this.snapshotFile              = snapshotFile;
+        this.initializeSnapshotClasses = initializeClasses;
+        return this;
+    }
+
+    /**
+     * Configure scanner to save object graph snapshot of every completed
+     * scan to specified directory. Only the last 10 snapshots are kept.
+     *
+     * @param snapshotDirectory the snapshot directory
+     *
+     * @return the code quality test server
+     * @see CodeQualityTestServer#withSnapshot(Path)
+     */
+    public CodeQualityTestServer withSnapshotDirectory(Path snapshotDirectory) {
+        return withSnapshotDirectory(
+                snapshotDirectory,
+                DEFAULT_KEPT_SNAPSHOTS
+        );
+    }
+
+    /**
+     * Configure scanner to save object graph snapshot of every completed
+     * scan to specified directory. Older snapshots are deleted, so that only
+     * specified number of the most recent ones is kept.
+     *
+     * @param snapshotDirectory the snapshot directory
+     * @param keptSnapshots     the number of snapshots to keep
+     *
+     * @return the code quality test server
+     * @see CodeQualityTestServer#withSnapshot(Path)
+     */
+    public CodeQualityTestServer withSnapshotDirectory(Path snapshotDirectory, int keptSnapshots) {
+        if (keptSnapshots < 1) {
+            throw new IllegalArgumentException("Number of kept snapshots must be positive");
+        }
+        this.snapshotDirectory = snapshotDirectory;
+        this.keptSnapshots     = keptSnapshots;
+        return this;
+    }
+
     /**
      * Configure scanner to use specific set of inspection suites.
      *
@@ -287,7 +657,11 @@ public class CodeQualityTestServer {
         return this;
     }
 
-    private final class MyHandler implements HttpHandler {
+    private final class MyHandler implements HttpHandler, CodeQualityTestServerMXBean {
+
+        private final ClassLoader contextClassLoader = Thread
+                .currentThread()
+                .getContextClassLoader();
 
         private final List<String> currentResults = new CopyOnWriteArrayList<>();
 
@@ -303,8 +677,22 @@ public class CodeQualityTestServer {
 
         private final AtomicBoolean scannerIsRunning = new AtomicBoolean(false);
 
+        private final Object cancellationLock = new Object();
+
+        private boolean cancellable;
+
+        @Nullable
+        private ScheduledExecutorService backgroundScanner;
+
+        @Nullable
+        private HeapDump heapDump;
+
         private volatile String lastScanDate = "";
 
+        private volatile Map<String, Integer> reportCounts = Collections.emptyMap();
+
+        private volatile String status = "idle";
+
         private MyHandler() {
             if (suites.isEmpty()) {
                 scanner.addSuite(CollectionInspections::new);
@@ -314,12 +702,160 @@ public class CodeQualityTestServer {
             } else {
                 suites.forEach(scanner::addSuite);
             }
+            scanner.addSkipRule(skips);
+            scanner.setParallelism(parallelism);
+            scanner.setIncremental(incrementalRescan);
+            scanner.setMemoryBudget(
+                    maxGraphObjects,
+                    maxGraphBytes
+            );
+            scanner.setThrottling(
+                    dutyCycle,
+                    maxSlice.toNanos()
+            );
+            if (maxSampledInstances != Long.MAX_VALUE) {
+                scanner.setSampling(maxSampledInstances);
+            }
+            samplingRates.forEach(scanner::setSamplingRate);
+            if (bytecodeCacheDirectory != null) {
+                try {
+                    Scanner.setBytecodeCache(bytecodeCacheDirectory);
+                } catch (IOException e) {
+                    System.err.println("Error opening CQT bytecode cache");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void scheduleScans(Duration interval) {
+            backgroundScanner = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(
+                        r,
+                        "cqt-background-scanner"
+                );
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setContextClassLoader(contextClassLoader);
+                return thread;
+            });
+            backgroundScanner.scheduleWithFixedDelay(
+                    this::runBackgroundScanner,
+                    0,
+                    interval.toNanos(),
+                    TimeUnit.NANOSECONDS
+            );
+        }
+
+        @Override
+        public boolean startScan() {
+            // Flag is reset once dispatched scan completes
+            if (!scannerIsRunning.compareAndSet(
+                    false,
+                    true
+            )) {
+                return false;
+            }
+            try {
+                if (backgroundScanner != null) {
+                    backgroundScanner.execute(this::runBackgroundScanner);
+                } else {
+                    Thread thread = new Thread(
+                            this::runBackgroundScanner,
+                            "cqt-scanner"
+                    );
+                    thread.setDaemon(true);
+                    thread.setContextClassLoader(contextClassLoader);
+                    thread.start();
+                }
+            } catch (RuntimeException | Error e) {
+                scannerIsRunning.set(false);
+                throw e;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean cancelScan() {
+            synchronized (cancellationLock) {
+                if (!cancellable) {
+                    return false;
+                }
+                scanner.cancel();
+                return true;
+            }
+        }
+
+        private void setCancellable(boolean cancellable) {
+            synchronized (cancellationLock) {
+                this.cancellable = cancellable;
+                if (!cancellable && scanner.isCancelled()) {
+                    // Cancellation accepted after last checkpoint of scanner
+                    throw new CancellationException("Scan was cancelled");
+                }
+            }
+        }
+
+        @Override
+        public String getStatus() {
+            return status;
+        }
+
+        @Override
+        public boolean isScanRunning() {
+            return scannerIsRunning.get();
+        }
+
+        @Override
+        public long getLastScanDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(scanner
+                                                         .getMetrics()
+                                                         .getLastScanNanos());
+        }
+
+        @Override
+        public long getObjectCount() {
+            return scanner.getMetrics().getVisitedCount();
+        }
+
+        @Override
+        public Map<String, Integer> getReportCounts() {
+            return reportCounts;
+        }
+
+        @Override
+        public long getHeapFootprintBytes() {
+            return scanner.getEstimatedHeapBytes();
+        }
+
+        private void runBackgroundScanner() {
+            try {
+                runScanner(new PrintWriter(new NullWriter()));
+            } catch (Throwable e) {
+                // Keep the schedule running
+                e.printStackTrace();
+            }
         }
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String path = exchange.getRequestURI().getPath();
 
+            if (path.endsWith("/metrics.json")) {
+                sendMetrics(
+                        exchange,
+                        "application/json",
+                        scanner.getMetrics()::writeJson
+                );
+                return;
+            } else if (path.endsWith("/metrics")) {
+                sendMetrics(
+                        exchange,
+                        "text/plain; version=0.0.4",
+                        scanner.getMetrics()::writePrometheus
+                );
+                return;
+            }
+
             if (!path.endsWith("/")
                 && !path.endsWith("/scan")
                 && !path.endsWith("/suppress")) {
@@ -533,7 +1069,14 @@ public class CodeQualityTestServer {
                 try {
                     boolean needToRunScanner = !resultsAreReady.get()
                                                && !scannerIsRunning.get();
-                    if (path.endsWith("/scan") || needToRunScanner) {
+                    if (backgroundScanner != null && path.endsWith("/scan")) {
+                        output.println("Scanner is currently running...");
+                        startScan();
+                        output.print("<script>self.location.replace('.')</script>");
+                    } else if (backgroundScanner != null && !resultsAreReady.get()) {
+                        output.println("Scanner is currently running...");
+                        refreshWhenScannerIsDone(output);
+                    } else if (path.endsWith("/scan") || needToRunScanner) {
                         output.println("Scanner is currently running...");
                         runScanner(output);
                     } else if (!resultsAreReady.get()) {
@@ -592,7 +1135,7 @@ public class CodeQualityTestServer {
                                 output,
                                 path
                         );
-                        if (scannerIsRunning.get()) {
+                        if (scannerIsRunning.get() && backgroundScanner == null) {
                             refreshWhenScannerIsDone(output);
                         }
                     }
@@ -610,6 +1153,25 @@ public class CodeQualityTestServer {
             }
         }
 
+        private void sendMetrics(HttpExchange exchange,
+                                 String contentType,
+                                 Consumer<PrintWriter> writer) throws IOException {
+            exchange.getResponseHeaders().add(
+                    "Content-Type",
+                    contentType
+            );
+            exchange.sendResponseHeaders(
+                    200,
+                    0
+            );
+            try (PrintWriter output = new PrintWriter(
+                    exchange.getResponseBody(),
+                    true
+            )) {
+                writer.accept(output);
+            }
+        }
+
         private void banner(PrintWriter output) {
             output.println(
                     "<span class='banner'><span class='application'><a href='https://github.com/fluorumlabs/code-quality-test'>Code Quality Test Server</a> ("
@@ -620,24 +1182,54 @@ public class CodeQualityTestServer {
 
         private void runScanner(PrintWriter output) {
             synchronized (scanner) {
+                scanner.clearCancellation();
+                setCancellable(true);
                 scannerIsRunning.set(true);
+                status = "running";
                 output.println();
                 try {
                     autoRefresh(output);
                     scanner.setOutput(output);
                     scanner.reset();
 
-                    scanner.visitEngine();
-                    if (scanTargets.isEmpty()) {
-                        scanner.visitClassLoaders();
+                    if (snapshotFile != null) {
+                        scanner.visitSnapshot(
+                                snapshotFile,
+                                contextClassLoader,
+                                initializeSnapshotClasses
+                        );
+                    } else if (heapDumpFile != null) {
+                        if (heapDump == null) {
+                            output.println("indexing heap dump: " + heapDumpFile);
+                            heapDump = HeapDump.open(
+                                    heapDumpFile,
+                                    contextClassLoader
+                            );
+                            heapDump.setInitializeClasses(initializeHeapDumpClasses);
+                        }
+                        scanner.visitHeapDump(heapDump);
                     } else {
-                        scanTargets.forEach(scanner::visit);
+                        scanner.visitEngine();
+                        if (scanTargets.isEmpty()) {
+                            scanner.visitClassLoaders();
+                        } else {
+                            scanTargets.forEach(scanner::visit);
+                        }
                     }
 
                     // Copy prev/new results
 
-                    List<String> newReports = scanner
-                            .analyze()
+                    List<InspectionResult> inspectionResults = scanner.analyze();
+                    setCancellable(false);
+                    long                   renderStart       = System.nanoTime();
+                    Map<String, Integer>   newReportCounts   = new LinkedHashMap<>();
+                    for (Level level : Level.values()) {
+                        newReportCounts.put(
+                                level.name(),
+                                0
+                        );
+                    }
+                    List<String> newReports = inspectionResults
                             .stream()
                             .sorted(Comparator
                                             .comparing(InspectionResult::getInspectionLevel)
@@ -645,9 +1237,19 @@ public class CodeQualityTestServer {
                                             .thenComparing(InspectionResult::getInspectionCategory)
                                             .thenComparing(InspectionResult::getInspectionMessage))
                             .flatMap(ir -> {
-                                return ir.toHtml().stream().sorted();
+                                List<String> reports = ir.toHtml();
+                                newReportCounts.merge(
+                                        ir.getInspectionLevel().name(),
+                                        reports.size(),
+                                        Integer::sum
+                                );
+                                return reports.stream().sorted();
                             })
                             .collect(Collectors.toList());
+                    scanner.getMetrics().record(
+                            ScanMetrics.Phase.RENDER,
+                            System.nanoTime() - renderStart
+                    );
 
                     synchronized (resultLockObject) {
                         previousResults.clear();
@@ -655,17 +1257,37 @@ public class CodeQualityTestServer {
                         currentResults.clear();
                         currentResults.addAll(newReports);
                     }
+                    LocalDateTime dateTime = LocalDateTime.now(); // Gets the current date and time
+                    if (snapshotDirectory != null) {
+                        saveSnapshot(
+                                snapshotDirectory,
+                                dateTime
+                        );
+                    }
+                    if (weakRetention) {
+                        scanner.release();
+                    }
 
-                    LocalDateTime     dateTime  = LocalDateTime.now(); // Gets the current date and time
                     DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
                     lastScanDate = dateTime.format(formatter);
+                    reportCounts = Collections.unmodifiableMap(newReportCounts);
+                    status       = "completed";
                     resultsAreReady.set(true);
+                } catch (CancellationException e) {
+                    status = "cancelled";
+                    cancelAutoRefresh(output);
+                    output.println("<span class='error'>Scan was cancelled</span>");
                 } catch (Exception e) {
+                    status = "failed: " + e;
                     cancelAutoRefresh(output);
                     output.println("<span class='error'>");
                     e.printStackTrace(output);
                     output.println("</span>");
                 } finally {
+                    synchronized (cancellationLock) {
+                        cancellable = false;
+                    }
+                    scanner.getMetrics().finish();
                     scannerIsRunning.set(false);
                 }
             }
@@ -718,10 +1340,7 @@ public class CodeQualityTestServer {
 
             if (!path.isEmpty()) {
                 try {
-                    Class<?> aClass = Thread
-                            .currentThread()
-                            .getContextClassLoader()
-                            .loadClass(path);
+                    Class<?> aClass = contextClassLoader.loadClass(path);
                     output.println(
                             "<span class='title'><span class='buttons'><a href='/'>&lt;</a></span> Reports for "
                             + Reference.formatClassName(aClass)
@@ -794,6 +1413,31 @@ public class CodeQualityTestServer {
             output.print("<script>self.location.replace(document.baseURI)</script>");
         }
 
+        private void saveSnapshot(Path directory, LocalDateTime dateTime) throws IOException {
+            Files.createDirectories(directory);
+            scanner.saveSnapshot(directory.resolve("cqt-"
+                                                   + dateTime.format(SNAPSHOT_FORMATTER)
+                                                   + ".snapshot"));
+            List<Path> snapshots;
+            try (Stream<Path> files = Files.list(directory)) {
+                // Timestamps in names sort chronologically
+                snapshots = files
+                        .filter(file -> file
+                                .getFileName()
+                                .toString()
+                                .matches("cqt-\\d{8}-\\d{6}\\.snapshot"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            for (int i = 0; i < snapshots.size() - keptSnapshots; i++) {
+                try {
+                    Files.deleteIfExists(snapshots.get(i));
+                } catch (IOException e) {
+                    // Retried after next scan
+                }
+            }
+        }
+
         private Set<String> readDismissedReportDescriptors() {
             Path cqtIgnore = cqtIgnoreRoot.resolve(".cqtignore");
             if (Files.exists(cqtIgnore)) {
@@ -818,4 +1462,23 @@ public class CodeQualityTestServer {
 
     }
 
+    private static final class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            // discard
+        }
+
+        @Override
+        public void flush() {
+            // nothing to flush
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+
+    }
+
 }
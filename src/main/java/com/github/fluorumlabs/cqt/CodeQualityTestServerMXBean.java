@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link CodeQualityTestServer}, registered in
+ * platform MBean server as {@value #OBJECT_NAME}.
+ */
+public interface CodeQualityTestServerMXBean {
+
+    /**
+     * Object name of registered MBean.
+     */
+    String OBJECT_NAME = "com.github.fluorumlabs.cqt:type=CodeQualityTestServer";
+
+    /**
+     * Start scan in background.
+     *
+     * @return {@code false} if scan is already running
+     */
+    boolean startScan();
+
+    /**
+     * Cancel running scan. Results of previous scan are kept. Scan can be
+     * cancelled until its analysis is finished.
+     *
+     * @return {@code false} if no scan is running or its analysis is
+     *         finished
+     */
+    boolean cancelScan();
+
+    /**
+     * Get scanner status: {@code idle}, {@code running}, {@code completed},
+     * {@code cancelled} or {@code failed} followed by failure message.
+     *
+     * @return the status
+     */
+    String getStatus();
+
+    /**
+     * Test if scan is running.
+     *
+     * @return {@code true} if scan is running
+     */
+    boolean isScanRunning();
+
+    /**
+     * Get duration of last finished scan.
+     *
+     * @return the duration in milliseconds
+     */
+    long getLastScanDurationMillis();
+
+    /**
+     * Get number of objects visited by last or current scan.
+     *
+     * @return the object count
+     */
+    long getObjectCount();
+
+    /**
+     * Get number of reports of last completed scan by
+     * {@link com.github.fluorumlabs.cqt.annotations.Level}.
+     *
+     * @return the report counts
+     */
+    Map<String, Integer> getReportCounts();
+
+    /**
+     * Get estimated heap size of scanner data.
+     *
+     * @return the size in bytes
+     */
+    long getHeapFootprintBytes();
+
+}
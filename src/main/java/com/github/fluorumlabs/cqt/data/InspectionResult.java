@@ -157,7 +157,20 @@ public class InspectionResult {
                     "\t\tValue:         %s\n",
                     first.formatValue()
             ));
-            if (referencesInGroup.size() > 1) {
+            double estimatedSize = referencesInGroup
+                    .stream()
+                    .mapToDouble(Reference::getSampleWeight)
+                    .sum();
+            if (estimatedSize > referencesInGroup.size()) {
+                // Some owners were skipped by instance sampling
+                long estimatedOther = Math.round(estimatedSize) - 1;
+                if (estimatedOther > 0) {
+                    output.append(String.format(
+                            "\t\t               ... ~%d other (estimated)\n",
+                            estimatedOther
+                    ));
+                }
+            } else if (referencesInGroup.size() > 1) {
                 output.append(String.format(
                         "\t\t               ... %d other\n",
                         referencesInGroup.size() - 1
@@ -225,6 +225,28 @@ public final class Reference {
     public static Reference from(Object owner,
                                  ObjectValue value,
                                  com.github.fluorumlabs.cqt.internals.Scanner scanner) {
+        return from(
+                owner,
+                value,
+                scanner.getData(owner),
+                scanner
+        );
+    }
+
+    /**
+     * Instantiate a reference of owner with known scanner data
+     *
+     * @param owner     the owner object (LHS of relationship)
+     * @param value     the value (RHS of relationship)
+     * @param ownerData the scanner data of owner
+     * @param scanner   the scanner instance
+     *
+     * @return the reference
+     */
+    public static Reference from(Object owner,
+                                 ObjectValue value,
+                                 @Nullable ObjectData ownerData,
+                                 com.github.fluorumlabs.cqt.internals.Scanner scanner) {
         Object targetValue = value.getValue();
         Class<?> targetClass = (value.getReferenceType()
                                 == ReferenceType.POSSIBLE_VALUE
@@ -246,7 +268,7 @@ public final class Reference {
                 targetClass,
                 owner instanceof Class ? null : owner,
                 ownerClass,
-                scanner.getData(owner),
+                ownerData,
                 value.getReferenceType(),
                 value.getField(),
                 scanner
@@ -598,6 +620,16 @@ public final class Reference {
         return referenceType;
     }
 
+    /**
+     * Gets number of references this one stands for when scanner samples
+     * instances.
+     *
+     * @return the sample weight, {@code 1} if owner class was not sampled
+     */
+    public double getSampleWeight() {
+        return scanner.getSamplingWeight(owner);
+    }
+
     /**
      * Gets scanner instance.
      *
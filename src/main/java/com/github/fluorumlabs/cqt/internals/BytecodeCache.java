@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent cache of bytecode facts collected by {@link ClassIndex}, keyed
+ * by SHA-1 hash of class bytes, so that unchanged classes are not analyzed
+ * again after JVM restart.
+ * <p>
+ * Cache is a single append-only log of records: facts of a class, and facts
+ * derived from frames of a single method, which are appended once method is
+ * analyzed. Log is memory-mapped and indexed by key when cache is opened;
+ * records are decoded on lookup. Records appended afterwards are only
+ * visible to caches opened later. Incomplete records left by interrupted
+ * writes are discarded. Other damaged records are detected only when
+ * decoded: decoders never read past their record and throw {@link
+ * RuntimeException}, which callers treat as cache miss.
+ */
+final class BytecodeCache implements Closeable {
+
+    /**
+     * Record kind of class facts.
+     */
+    static final int CLASS = 1;
+
+    /**
+     * Record kind of method facts.
+     */
+    static final int METHOD = 2;
+
+    private static final String FILE_NAME = "bytecode.log";
+
+    private static final byte[] MAGIC = {'C', 'Q', 'T', 'B'};
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+
+    private static final int KEY_SIZE = 20;
+
+    private final FileChannel channel;
+
+    private final Map<String, Integer> classes = new HashMap<>();
+
+    private final Map<String, List<Integer>> methods = new HashMap<>();
+
+    @Nullable
+    private final ByteBuffer buffer;
+
+    private BytecodeCache(FileChannel channel, @Nullable ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer  = buffer;
+    }
+
+    /**
+     * Open cache in directory, creating it if needed.
+     *
+     * @param directory the cache directory
+     *
+     * @return the cache
+     *
+     * @throws IOException if cache cannot be opened
+     */
+    static BytecodeCache open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(
+                directory.resolve(FILE_NAME),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+        try {
+            FileLock lock = channel.lock();
+            try {
+                return load(channel);
+            } finally {
+                lock.release();
+            }
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IOException(
+                    "Cache is locked by another cache in this JVM: " + directory,
+                    e
+            );
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static BytecodeCache load(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE || !hasHeader(channel)) {
+            // Cache of other version, or too large to be mapped
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC);
+            header.put((byte) VERSION);
+            header.flip();
+            channel.write(
+                    header,
+                    0
+            );
+            return new BytecodeCache(
+                    channel,
+                    null
+            );
+        }
+        BytecodeCache cache = new BytecodeCache(
+                channel,
+                channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        0,
+                        size
+                )
+        );
+        int end = cache.index();
+        if (end < size) {
+            channel.truncate(end);
+        }
+        return cache;
+    }
+
+    private static boolean hasHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(
+                    header,
+                    header.position()
+            ) < 0) {
+                return false;
+            }
+        }
+        return Arrays.equals(
+                Arrays.copyOf(
+                        header.array(),
+                        MAGIC.length
+                ),
+                MAGIC
+        ) && header.get(MAGIC.length) == VERSION;
+    }
+
+    /**
+     * Get key of class bytes.
+     *
+     * @param classBytes the class bytes
+     *
+     * @return the key
+     */
+    static String keyOf(byte[] classBytes) {
+        try {
+            return hex(MessageDigest
+                    .getInstance("SHA-1")
+                    .digest(classBytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(
+                    "SHA-1 is not supported",
+                    e
+            );
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit(
+                    (b >> 4) & 0xF,
+                    16
+            )).append(Character.forDigit(
+                    b & 0xF,
+                    16
+            ));
+        }
+        return hex.toString();
+    }
+
+    private int index() {
+        // Record: kind, key, payload length, payload
+        ByteBuffer records = buffer.duplicate();
+        records.position(HEADER_SIZE);
+        while (records.remaining() >= 1 + KEY_SIZE + 4) {
+            int    start = records.position();
+            int    kind  = records.get();
+            byte[] key   = new byte[KEY_SIZE];
+            records.get(key);
+            int length = records.getInt();
+            if (length < 0 || length > records.remaining()) {
+                return start;
+            }
+            String hex = hex(key);
+            if (kind == CLASS) {
+                classes.put(
+                        hex,
+                        records.position()
+                );
+            } else if (kind == METHOD) {
+                methods.computeIfAbsent(
+                        hex,
+                        k -> new ArrayList<>()
+                ).add(records.position());
+            } else {
+                return start;
+            }
+            records.position(records.position() + length);
+        }
+        return records.position();
+    }
+
+    /**
+     * Find facts of class.
+     *
+     * @param key the key of class bytes
+     *
+     * @return the decoder of class record or {@code null} if class is not
+     *         cached
+     */
+    @Nullable
+    Decoder findClass(String key) {
+        Integer position = classes.get(key);
+        return position == null ? null : decoderAt(position);
+    }
+
+    /**
+     * Find facts of analyzed methods of class.
+     *
+     * @param key the key of class bytes
+     *
+     * @return the decoders of method records
+     */
+    List<Decoder> findMethods(String key) {
+        List<Decoder> result = new ArrayList<>();
+        for (int position : methods.getOrDefault(
+                key,
+                Collections.emptyList()
+        )) {
+            result.add(decoderAt(position));
+        }
+        return result;
+    }
+
+    private Decoder decoderAt(int position) {
+        // Payload is preceded by its length; reads past it fail
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + buffer.getInt(position - 4));
+        record.position(position);
+        return new Decoder(record);
+    }
+
+    /**
+     * Append record. Failures are ignored, as cache is best effort.
+     *
+     * @param kind    the record kind
+     * @param key     the key of class bytes
+     * @param encoder the encoder with record payload
+     */
+    void append(int kind, String key, Encoder encoder) {
+        byte[]     payload = encoder.toByteArray();
+        ByteBuffer record  = ByteBuffer.allocate(1 + KEY_SIZE + 4 + payload.length);
+        record.put((byte) kind);
+        for (int i = 0; i < KEY_SIZE; i++) {
+            record.put((byte) Integer.parseInt(
+                    key.substring(
+                            i * 2,
+                            i * 2 + 2
+                    ),
+                    16
+            ));
+        }
+        record.putInt(payload.length);
+        record.put(payload);
+        record.flip();
+        synchronized (this) {
+            try {
+                FileLock lock = channel.lock();
+                try {
+                    long position = channel.size();
+                    while (record.hasRemaining()) {
+                        position += channel.write(
+                                record,
+                                position
+                        );
+                    }
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException | OverlappingFileLockException e) {
+                // ignore, cache is best effort
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writer of record payload. Strings are written once to a table
+     * preceding the payload and referenced by index.
+     */
+    static final class Encoder {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        /**
+         * Write non-negative int.
+         *
+         * @param value the value
+         */
+        void writeInt(int value) {
+            writeVarint(
+                    body,
+                    value
+            );
+        }
+
+        /**
+         * Write string.
+         *
+         * @param value the string
+         */
+        void writeString(@Nullable String value) {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            Integer id = strings.get(value);
+            if (id == null) {
+                id = strings.size();
+                strings.put(
+                        value,
+                        id
+                );
+            }
+            writeInt(id + 1);
+        }
+
+        /**
+         * Write collection of strings.
+         *
+         * @param values the strings
+         */
+        void writeStrings(Collection<String> values) {
+            writeInt(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        private byte[] toByteArray() {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            writeVarint(
+                    output,
+                    strings.size()
+            );
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarint(
+                        output,
+                        bytes.length
+                );
+                output.write(
+                        bytes,
+                        0,
+                        bytes.length
+                );
+            }
+            output.write(
+                    body.toByteArray(),
+                    0,
+                    body.size()
+            );
+            return output.toByteArray();
+        }
+
+        private static void writeVarint(ByteArrayOutputStream output, int value) {
+            while ((value & ~0x7F) != 0) {
+                output.write(value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            output.write(value);
+        }
+
+    }
+
+    /**
+     * Reader of record payload.
+     */
+    static final class Decoder {
+
+        private final ByteBuffer buffer;
+
+        private final String[] strings;
+
+        private Decoder(ByteBuffer buffer) {
+            this.buffer  = buffer;
+            this.strings = new String[readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readInt()];
+                buffer.get(bytes);
+                strings[i] = new String(
+                        bytes,
+                        StandardCharsets.UTF_8
+                );
+            }
+        }
+
+        /**
+         * Read non-negative int.
+         *
+         * @return the value
+         */
+        int readInt() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Read string.
+         *
+         * @return the string
+         */
+        @Nullable
+        String readString() {
+            int id = readInt();
+            return id == 0 ? null : strings[id - 1];
+        }
+
+        /**
+         * Read collection of strings.
+         *
+         * @param target the collection to add strings to
+         */
+        void readStrings(Collection<String> target) {
+            int count = readInt();
+            for (int i = 0; i < count; i++) {
+                target.add(readString());
+            }
+        }
+
+    }
+
+}
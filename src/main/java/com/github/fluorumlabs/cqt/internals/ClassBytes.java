@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Provider of class bytes for bytecode analysis.
+ * <p>
+ * Bytes are taken from code source of class when it is a jar file or a
+ * directory, and from defining class loader otherwise (nested jars, webapp
+ * class loaders, JDK classes). Jar files are memory-mapped once and their
+ * central directories are indexed, so that entries are read without opening
+ * the archive again.
+ */
+final class ClassBytes {
+
+    private static final Map<Path, Archive> ARCHIVES = new ConcurrentHashMap<>();
+
+    private ClassBytes() {
+    }
+
+    /**
+     * Get bytes of class.
+     *
+     * @param clazz the class
+     *
+     * @return the class bytes
+     *
+     * @throws IOException if class bytes are not available
+     */
+    static byte[] of(Class<?> clazz) throws IOException {
+        String resource = clazz.getName().replace(
+                '.',
+                '/'
+        ) + ".class";
+        byte[] bytes    = fromCodeSource(
+                clazz,
+                resource
+        );
+        if (bytes == null) {
+            bytes = fromClassLoader(
+                    clazz.getClassLoader(),
+                    resource
+            );
+        }
+        if (bytes == null && clazz.getClassLoader() != null) {
+            bytes = fromClassLoader(
+                    null,
+                    resource
+            );
+        }
+        if (bytes == null) {
+            throw new IOException("Class not found: " + clazz.getName());
+        }
+        return bytes;
+    }
+
+    @Nullable
+    private static byte[] fromCodeSource(Class<?> clazz, String resource) {
+        Path location;
+        try {
+            CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+            URL        url        = codeSource == null ? null : codeSource.getLocation();
+            if (url == null || !"file".equals(url.getProtocol())) {
+                return null;
+            }
+            location = Paths.get(url.toURI());
+        } catch (SecurityException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(
+                    location,
+                    BasicFileAttributes.class
+            );
+            if (attributes.isDirectory()) {
+                Path file = location.resolve(resource);
+                return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+            }
+            Archive archive = ARCHIVES.get(location);
+            if (archive == null || !archive.isCurrent(attributes)) {
+                archive = Archive.open(
+                        location,
+                        attributes
+                );
+                ARCHIVES.put(
+                        location,
+                        archive
+                );
+            }
+            return archive.read(resource);
+        } catch (IOException | InternalError e) {
+            // Not an archive, or archive was modified while mapped
+            return null;
+        }
+    }
+
+    @Nullable
+    private static byte[] fromClassLoader(@Nullable ClassLoader classLoader, String resource) throws IOException {
+        try (InputStream inputStream = classLoader == null
+                                       ? ClassLoader.getSystemResourceAsStream(resource)
+                                       : classLoader.getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                return null;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[]                buffer = new byte[8192];
+            int                   read   = inputStream.read(buffer);
+            while (read >= 0) {
+                output.write(
+                        buffer,
+                        0,
+                        read
+                );
+                read = inputStream.read(buffer);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Memory-mapped jar file with indexed {@code .class} entries.
+     */
+    private static final class Archive {
+
+        private static final int CENTRAL_HEADER = 0x02014b50;
+
+        private static final int DEFLATED = 8;
+
+        private static final int END_HEADER = 0x06054b50;
+
+        private static final int LOCAL_HEADER = 0x04034b50;
+
+        private static final int STORED = 0;
+
+        @Nullable
+        private final ByteBuffer buffer;
+
+        private final Map<String, Integer> entries = new HashMap<>();
+
+        private final long lastModified;
+
+        private final long size;
+
+        private boolean multiRelease;
+
+        private Archive(@Nullable ByteBuffer buffer, BasicFileAttributes attributes) {
+            this.buffer       = buffer;
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size         = attributes.size();
+        }
+
+        private static Archive open(Path path, BasicFileAttributes attributes) throws IOException {
+            if (attributes.size() > Integer.MAX_VALUE || attributes.size() < 22) {
+                // Archive is served by class loader
+                return new Archive(
+                        null,
+                        attributes
+                );
+            }
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(
+                    path,
+                    StandardOpenOption.READ
+            )) {
+                buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        0,
+                        attributes.size()
+                );
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            Archive archive = new Archive(
+                    buffer,
+                    attributes
+            );
+            if (!archive.index()) {
+                return new Archive(
+                        null,
+                        attributes
+                );
+            }
+            return archive;
+        }
+
+        private boolean index() {
+            int end = buffer.limit() - 22;
+            int min = Math.max(
+                    0,
+                    end - 0xFFFF
+            );
+            while (end >= min && buffer.getInt(end) != END_HEADER) {
+                end--;
+            }
+            if (end < min) {
+                return false;
+            }
+            int count  = buffer.getShort(end + 10) & 0xFFFF;
+            int offset = buffer.getInt(end + 16);
+            if (count == 0xFFFF || offset < 0 || offset >= buffer.limit()) {
+                // ZIP64 archives are served by class loader
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (offset + 46 > buffer.limit() || buffer.getInt(offset) != CENTRAL_HEADER) {
+                    return false;
+                }
+                int nameLength    = buffer.getShort(offset + 28) & 0xFFFF;
+                int extraLength   = buffer.getShort(offset + 30) & 0xFFFF;
+                int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+                String name = name(
+                        offset + 46,
+                        nameLength
+                );
+                if (name.startsWith("META-INF/versions/")) {
+                    multiRelease = true;
+                } else if (name.endsWith(".class")) {
+                    entries.put(
+                            name,
+                            offset
+                    );
+                }
+                offset += 46 + nameLength + extraLength + commentLength;
+            }
+            return true;
+        }
+
+        private String name(int offset, int length) {
+            byte[] name = new byte[length];
+            for (int i = 0; i < length; i++) {
+                name[i] = buffer.get(offset + i);
+            }
+            return new String(
+                    name,
+                    StandardCharsets.UTF_8
+            );
+        }
+
+        private boolean isCurrent(BasicFileAttributes attributes) {
+            return lastModified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+        }
+
+        @Nullable
+        private byte[] read(String resource) throws IOException {
+            Integer central = buffer == null || multiRelease ? null : entries.get(resource);
+            if (central == null) {
+                // Versioned entries are resolved by class loader
+                return null;
+            }
+            int method           = buffer.getShort(central + 10) & 0xFFFF;
+            int compressedSize   = buffer.getInt(central + 20);
+            int uncompressedSize = buffer.getInt(central + 24);
+            int local            = buffer.getInt(central + 42);
+            if (local < 0 || local + 30 > buffer.limit() || buffer.getInt(local) != LOCAL_HEADER) {
+                throw new IOException("Corrupted archive entry: " + resource);
+            }
+            int data = local
+                       + 30
+                       + (buffer.getShort(local + 26) & 0xFFFF)
+                       + (buffer.getShort(local + 28) & 0xFFFF);
+            if (compressedSize < 0 || uncompressedSize < 0 || data + compressedSize > buffer.limit()) {
+                throw new IOException("Corrupted archive entry: " + resource);
+            }
+            ByteBuffer compressed = buffer.duplicate();
+            compressed.position(data);
+            compressed.limit(data + compressedSize);
+            if (method == STORED) {
+                byte[] bytes = new byte[compressedSize];
+                compressed.get(bytes);
+                return bytes;
+            } else if (method == DEFLATED) {
+                byte[] input = new byte[compressedSize];
+                compressed.get(input);
+                byte[]   bytes    = new byte[uncompressedSize];
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(input);
+                    int inflated = 0;
+                    while (inflated < bytes.length && !inflater.finished()) {
+                        int count = inflater.inflate(
+                                bytes,
+                                inflated,
+                                bytes.length - inflated
+                        );
+                        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        inflated += count;
+                    }
+                    if (inflated != bytes.length) {
+                        throw new IOException("Corrupted archive entry: " + resource);
+                    }
+                    return bytes;
+                } catch (DataFormatException e) {
+                    throw new IOException(
+                            "Corrupted archive entry: " + resource,
+                            e
+                    );
+                } finally {
+                    inflater.end();
+                }
+            }
+            return null;
+        }
+
+    }
+
+}
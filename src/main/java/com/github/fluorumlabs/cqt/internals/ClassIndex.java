@@ -0,0 +1,851 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import jdk.internal.org.objectweb.asm.ClassReader;
+import jdk.internal.org.objectweb.asm.Handle;
+import jdk.internal.org.objectweb.asm.Opcodes;
+import jdk.internal.org.objectweb.asm.tree.*;
+import jdk.internal.org.objectweb.asm.tree.analysis.*;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static jdk.internal.org.objectweb.asm.Type.*;
+
+/**
+ * Bytecode facts of a class, shared by {@link CallFinder}, {@link
+ * ModificationFinder}, {@link PossibleValues} and {@link ExposedMembers}.
+ * Index is computed once per class and cached in a {@link ClassValue}.
+ * <p>
+ * Facts not depending on data flow are collected in a single pass over
+ * instructions. Frames are computed on demand, only for methods which can
+ * contribute to particular query: methods storing to fields for possible
+ * values, and methods loading the field and invoking one of requested
+ * methods for calls. Class is read again to analyze such methods, and the
+ * facts derived from their frames are kept, so that each method is analyzed
+ * at most once. Class bytes are provided by {@link ClassBytes}.
+ * <p>
+ * If {@link BytecodeCache} is configured, facts are stored there and reused
+ * for classes with same bytes, including facts derived from frames.
+ */
+final class ClassIndex {
+
+    private static final ClassValue<ClassIndex> INDEXES = new ClassValue<ClassIndex>() {
+        @Override
+        protected ClassIndex computeValue(Class<?> type) {
+            return new ClassIndex(type);
+        }
+    };
+
+    private static final String COLLECTIONS = getInternalName(Collections.class);
+
+    @Nullable
+    private static volatile BytecodeCache cache;
+
+    private final Class<?> clazz;
+
+    private final Set<String> exposedMethods = new LinkedHashSet<>();
+
+    private final Set<String> exposedReadingFields = new LinkedHashSet<>();
+
+    private final Set<String> exposedWritingFields = new LinkedHashSet<>();
+
+    private final List<FieldWrite> fieldWrites = new ArrayList<>();
+
+    private final List<Invocation> invocations = new ArrayList<>();
+
+    private final Map<String, MethodInfo> methods = new LinkedHashMap<>();
+
+    private final Map<List<String>, Map<String, Set<String>>> selfReferences = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<String>> selfCalls = new HashMap<>();
+
+    @Nullable
+    private BytecodeCache classCache;
+
+    @Nullable
+    private String key;
+
+    @Nullable
+    private String name;
+
+    private ClassIndex(Class<?> clazz) {
+        this.clazz = clazz;
+        try {
+            byte[] bytes = ClassBytes.of(clazz);
+            classCache = cache;
+            if (classCache != null) {
+                key = BytecodeCache.keyOf(bytes);
+                if (load()) {
+                    return;
+                }
+            }
+            ClassNode classNode = new ClassNode();
+            read(
+                    bytes,
+                    classNode
+            );
+            name = classNode.name;
+            for (MethodNode method : classNode.methods) {
+                index(method);
+            }
+            if (classCache != null) {
+                classCache.append(
+                        BytecodeCache.CLASS,
+                        key,
+                        encode()
+                );
+            }
+        } catch (IOException e) {
+            // Class bytes are not available
+        }
+    }
+
+    /**
+     * Set cache used by indexes computed afterwards. Previous cache is
+     * closed.
+     *
+     * @param bytecodeCache the cache or {@code null} to disable caching
+     */
+    static synchronized void setCache(@Nullable BytecodeCache bytecodeCache) {
+        BytecodeCache previous = cache;
+        cache = bytecodeCache;
+        if (previous != null && previous != bytecodeCache) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Get index of class.
+     *
+     * @param clazz the class
+     *
+     * @return the index
+     */
+    static ClassIndex of(Class<?> clazz) {
+        return INDEXES.get(clazz);
+    }
+
+    private static void read(byte[] bytes, ClassNode classNode) {
+        ClassReader cr = new ClassReader(bytes);
+        cr.accept(
+                classNode,
+                0
+        );
+    }
+
+    private boolean load() {
+        try {
+            BytecodeCache.Decoder decoder = classCache.findClass(key);
+            if (decoder == null) {
+                return false;
+            }
+            decode(decoder);
+        } catch (RuntimeException e) {
+            // Corrupted record is treated as cache miss
+            methods.clear();
+            fieldWrites.clear();
+            invocations.clear();
+            selfCalls.clear();
+            exposedReadingFields.clear();
+            exposedWritingFields.clear();
+            exposedMethods.clear();
+            return false;
+        }
+        List<BytecodeCache.Decoder> methodDecoders;
+        try {
+            methodDecoders = classCache.findMethods(key);
+        } catch (RuntimeException e) {
+            // Corrupted record, methods will be analyzed again
+            return true;
+        }
+        for (BytecodeCache.Decoder methodDecoder : methodDecoders) {
+            try {
+                decodeMethod(methodDecoder);
+            } catch (RuntimeException e) {
+                // Corrupted record, method will be analyzed again
+            }
+        }
+        return true;
+    }
+
+    private BytecodeCache.Encoder encode() {
+        BytecodeCache.Encoder encoder = new BytecodeCache.Encoder();
+        encoder.writeString(name);
+        encoder.writeInt(methods.size());
+        for (MethodInfo method : methods.values()) {
+            encoder.writeString(method.name);
+            encoder.writeString(method.desc);
+            encoder.writeInt(method.access);
+            encoder.writeStrings(method.readFields);
+            encoder.writeInt(method.fieldWrites.size());
+            for (FieldWrite fieldWrite : method.fieldWrites) {
+                encoder.writeInt(fieldWrite.instruction);
+                encoder.writeString(fieldWrite.fieldName);
+                encoder.writeInt(fieldWrite.array ? 1 : 0);
+            }
+            encoder.writeInt(method.invocations.size());
+            for (Invocation invocation : method.invocations) {
+                encoder.writeInt(invocation.instruction);
+                encoder.writeInt(invocation.names.length);
+                for (int i = 0; i < invocation.names.length; i++) {
+                    encoder.writeString(invocation.names[i]);
+                    encoder.writeString(invocation.chains[i]);
+                }
+            }
+        }
+        encoder.writeInt(selfCalls.size());
+        selfCalls.forEach((callee, callers) -> {
+            encoder.writeString(callee);
+            encoder.writeStrings(callers);
+        });
+        encoder.writeStrings(exposedReadingFields);
+        encoder.writeStrings(exposedWritingFields);
+        encoder.writeStrings(exposedMethods);
+        return encoder;
+    }
+
+    private void decode(BytecodeCache.Decoder decoder) {
+        name = decoder.readString();
+        int methodCount = decoder.readInt();
+        for (int m = 0; m < methodCount; m++) {
+            MethodInfo info = new MethodInfo(
+                    decoder.readString(),
+                    decoder.readString(),
+                    decoder.readInt()
+            );
+            methods.put(
+                    info.name + info.desc,
+                    info
+            );
+            decoder.readStrings(info.readFields);
+            int writeCount = decoder.readInt();
+            for (int i = 0; i < writeCount; i++) {
+                FieldWrite fieldWrite = new FieldWrite(
+                        info,
+                        decoder.readInt(),
+                        decoder.readString(),
+                        decoder.readInt() != 0
+                );
+                fieldWrites.add(fieldWrite);
+                info.fieldWrites.add(fieldWrite);
+            }
+            int invocationCount = decoder.readInt();
+            for (int i = 0; i < invocationCount; i++) {
+                int      instruction = decoder.readInt();
+                String[] names       = new String[decoder.readInt()];
+                String[] chains      = new String[names.length];
+                for (int j = 0; j < names.length; j++) {
+                    names[j]  = decoder.readString();
+                    chains[j] = decoder.readString();
+                }
+                Invocation invocation = new Invocation(
+                        info,
+                        instruction,
+                        names,
+                        chains
+                );
+                invocations.add(invocation);
+                info.invocations.add(invocation);
+            }
+        }
+        int calleeCount = decoder.readInt();
+        for (int i = 0; i < calleeCount; i++) {
+            decoder.readStrings(selfCalls.computeIfAbsent(
+                    decoder.readString(),
+                    s -> new LinkedHashSet<>()
+            ));
+        }
+        decoder.readStrings(exposedReadingFields);
+        decoder.readStrings(exposedWritingFields);
+        decoder.readStrings(exposedMethods);
+    }
+
+    private static BytecodeCache.Encoder encodeMethod(MethodInfo method) {
+        BytecodeCache.Encoder encoder = new BytecodeCache.Encoder();
+        encoder.writeString(method.name + method.desc);
+        encoder.writeInt(method.fieldWrites.size());
+        for (FieldWrite fieldWrite : method.fieldWrites) {
+            encoder.writeStrings(fieldWrite.valueTypes);
+        }
+        encoder.writeInt(method.invocations.size());
+        for (Invocation invocation : method.invocations) {
+            encoder.writeStrings(invocation.consumedFields);
+        }
+        return encoder;
+    }
+
+    private void decodeMethod(BytecodeCache.Decoder decoder) {
+        MethodInfo method = methods.get(decoder.readString());
+        if (method == null || method.analyzed || decoder.readInt() != method.fieldWrites.size()) {
+            return;
+        }
+        List<List<String>> valueTypes = new ArrayList<>();
+        for (int i = 0; i < method.fieldWrites.size(); i++) {
+            List<String> types = new ArrayList<>();
+            decoder.readStrings(types);
+            valueTypes.add(types.isEmpty() ? Collections.emptyList() : types);
+        }
+        if (decoder.readInt() != method.invocations.size()) {
+            return;
+        }
+        List<Set<String>> consumedFields = new ArrayList<>();
+        for (int i = 0; i < method.invocations.size(); i++) {
+            Set<String> fields = new HashSet<>();
+            decoder.readStrings(fields);
+            consumedFields.add(fields.isEmpty() ? Collections.emptySet() : fields);
+        }
+        for (int i = 0; i < valueTypes.size(); i++) {
+            method.fieldWrites.get(i).valueTypes = valueTypes.get(i);
+        }
+        for (int i = 0; i < consumedFields.size(); i++) {
+            method.invocations.get(i).consumedFields = consumedFields.get(i);
+        }
+        method.analyzed = true;
+    }
+
+    private void index(MethodNode method) {
+        String     signature = method.name + method.desc;
+        MethodInfo info      = new MethodInfo(
+                method.name,
+                method.desc,
+                method.access
+        );
+        methods.put(
+                signature,
+                info
+        );
+
+        AbstractInsnNode[] abstractInsnNodes = method.instructions.toArray();
+        for (int i = 0; i < abstractInsnNodes.length; i++) {
+            if (abstractInsnNodes[i] instanceof FieldInsnNode) {
+                FieldInsnNode insn  = (FieldInsnNode) abstractInsnNodes[i];
+                boolean       write = insn.getOpcode() == Opcodes.PUTFIELD
+                                      || insn.getOpcode() == Opcodes.PUTSTATIC;
+                if (write) {
+                    FieldWrite fieldWrite = new FieldWrite(
+                            info,
+                            i,
+                            insn.name,
+                            insn.desc.startsWith("[")
+                    );
+                    fieldWrites.add(fieldWrite);
+                    info.fieldWrites.add(fieldWrite);
+                } else {
+                    info.readFields.add(insn.name);
+                }
+                if (!insn.owner.equals(name)) {
+                    if (write) {
+                        exposedWritingFields.add(insn.owner
+                                                 + "."
+                                                 + insn.name);
+                    } else {
+                        exposedReadingFields.add(insn.owner
+                                                 + "."
+                                                 + insn.name);
+                    }
+                }
+            } else if (abstractInsnNodes[i] instanceof MethodInsnNode) {
+                MethodInsnNode insn = (MethodInsnNode) abstractInsnNodes[i];
+                if (insn.getOpcode() == Opcodes.INVOKEVIRTUAL
+                    || insn.getOpcode() == Opcodes.INVOKEINTERFACE) {
+                    Invocation invocation = new Invocation(
+                            info,
+                            i,
+                            new String[]{insn.name},
+                            new String[]{null}
+                    );
+                    invocations.add(invocation);
+                    info.invocations.add(invocation);
+                }
+                if ((insn.getOpcode() == Opcodes.INVOKEVIRTUAL
+                     || insn.getOpcode() == Opcodes.INVOKEINTERFACE
+                     || insn.getOpcode() == Opcodes.INVOKESTATIC)
+                    && insn.owner.equals(name)) {
+                    selfCalls.computeIfAbsent(
+                            insn.name + insn.desc,
+                            s -> new LinkedHashSet<>()
+                    ).add(signature);
+                }
+                if (!insn.owner.equals(name)) {
+                    exposedMethods.add(insn.owner
+                                       + "."
+                                       + insn.name
+                                       + insn.desc);
+                }
+            } else if (abstractInsnNodes[i] instanceof InvokeDynamicInsnNode) {
+                InvokeDynamicInsnNode insn   = (InvokeDynamicInsnNode) abstractInsnNodes[i];
+                List<String>          names  = new ArrayList<>();
+                List<String>          chains = new ArrayList<>();
+                for (Object bsmArg : insn.bsmArgs) {
+                    if (bsmArg instanceof Handle) {
+                        Handle handle = (Handle) bsmArg;
+                        names.add(handle.getName());
+                        chains.add(handle.getOwner().equals(name)
+                                   ? handle.getName() + handle.getDesc()
+                                   : null);
+                    }
+                }
+                Invocation invocation = new Invocation(
+                        info,
+                        i,
+                        names.toArray(new String[0]),
+                        chains.toArray(new String[0])
+                );
+                invocations.add(invocation);
+                info.invocations.add(invocation);
+            }
+        }
+    }
+
+    /**
+     * Compute frames of methods that were not analyzed yet and derive data
+     * flow facts from them.
+     *
+     * @param candidates the methods
+     */
+    private synchronized void analyze(Collection<MethodInfo> candidates) {
+        Map<String, MethodInfo> pending = new HashMap<>();
+        for (MethodInfo method : candidates) {
+            if (!method.analyzed) {
+                pending.put(
+                        method.name + method.desc,
+                        method
+                );
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<MethodNode> methodNodes = new ArrayList<>();
+        try {
+            ClassNode classNode = new ClassNode();
+            read(
+                    ClassBytes.of(clazz),
+                    classNode
+            );
+            for (MethodNode methodNode : classNode.methods) {
+                if (pending.containsKey(methodNode.name + methodNode.desc)) {
+                    methodNodes.add(methodNode);
+                }
+            }
+        } catch (IOException e) {
+            // Class bytes are no longer available
+        }
+        for (MethodNode methodNode : methodNodes) {
+            MethodInfo method = pending.get(methodNode.name + methodNode.desc);
+            try {
+                Analyzer<SourceValue> analyzer = new Analyzer<>(new SourceInterpreter());
+                analyzer.analyze(
+                        name,
+                        methodNode
+                );
+                Frame<SourceValue>[] frames = analyzer.getFrames();
+                for (FieldWrite fieldWrite : method.fieldWrites) {
+                    fieldWrite.valueTypes = storedValueTypes(frames[fieldWrite.instruction]);
+                }
+                for (Invocation invocation : method.invocations) {
+                    invocation.consumedFields = consumedFields(
+                            frames,
+                            invocation.instruction
+                    );
+                }
+            } catch (AnalyzerException e) {
+                // Data flow facts stay empty
+            }
+            if (classCache != null) {
+                classCache.append(
+                        BytecodeCache.METHOD,
+                        key,
+                        encodeMethod(method)
+                );
+            }
+        }
+        pending.values().forEach(method -> method.analyzed = true);
+    }
+
+    private static List<String> storedValueTypes(@Nullable Frame<SourceValue> current) {
+        if (current == null) {
+            // Unreachable code
+            return Collections.emptyList();
+        }
+        List<String> types    = new ArrayList<>();
+        SourceValue  topValue = current.getStack(current.getStackSize() - 1);
+        for (AbstractInsnNode abstractInsnNode : topValue.insns) {
+            if (abstractInsnNode instanceof TypeInsnNode) {
+                types.add(getObjectType(((TypeInsnNode) abstractInsnNode).desc).getClassName());
+            } else if (abstractInsnNode instanceof MethodInsnNode) {
+                MethodInsnNode insn = (MethodInsnNode) abstractInsnNode;
+                String         type = getType(insn.desc)
+                        .getReturnType()
+                        .getClassName();
+                if (insn.owner.equals(COLLECTIONS)) {
+                    type = PossibleValues.getCollectionsWrapperClass(
+                            insn.name,
+                            type
+                    );
+                }
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    private static Set<String> consumedFields(Frame<SourceValue>[] frames,
+                                              int index) {
+        Frame<SourceValue> current = frames[index];
+        if (current == null) {
+            // Unreachable code
+            return Collections.emptySet();
+        }
+        Frame<SourceValue> next = index < frames.length - 1 && frames[index + 1] != null
+                                  ? frames[index + 1]
+                                  : current;
+
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < current.getStackSize(); i++) {
+            SourceValue instance = current.getStack(i);
+            for (AbstractInsnNode abstractInsnNode : instance.insns) {
+                if (abstractInsnNode instanceof FieldInsnNode) {
+                    FieldInsnNode insnNode = (FieldInsnNode) abstractInsnNode;
+                    fields.add(insnNode.name);
+                }
+            }
+        }
+
+        for (int i = 0; i < next.getStackSize(); i++) {
+            SourceValue instance = next.getStack(i);
+            for (AbstractInsnNode abstractInsnNode : instance.insns) {
+                if (abstractInsnNode instanceof FieldInsnNode) {
+                    FieldInsnNode insnNode = (FieldInsnNode) abstractInsnNode;
+                    int           indexOf  = fields.indexOf(insnNode.name);
+                    if (indexOf >= 0) {
+                        fields.remove(indexOf);
+                    }
+                }
+            }
+        }
+
+        return fields.isEmpty() ? Collections.emptySet() : new HashSet<>(fields);
+    }
+
+    /**
+     * Get ASM internal name of class.
+     *
+     * @return the internal name or {@code null} if class bytes are not
+     *         available
+     */
+    @Nullable
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Get symbol of method declared in class.
+     *
+     * @param method the method
+     *
+     * @return the symbol
+     * @see ExposedMembers#isMethodExposed(int)
+     */
+    int getSymbol(MethodInfo method) {
+        if (method.symbol < 0) {
+            method.symbol = ExposedMembers.methodSymbol(
+                    name,
+                    method.name,
+                    method.desc
+            );
+        }
+        return method.symbol;
+    }
+
+    /**
+     * Get method declared in class.
+     *
+     * @param signature the method name and descriptor
+     *
+     * @return the method
+     */
+    MethodInfo getMethod(String signature) {
+        return methods.get(signature);
+    }
+
+    /**
+     * Get field writes, in order of methods and instructions, with types of
+     * stored values. Methods storing to fields are analyzed on first call.
+     *
+     * @return the field writes
+     */
+    List<FieldWrite> getFieldWrites() {
+        List<MethodInfo> candidates = new ArrayList<>();
+        for (FieldWrite fieldWrite : fieldWrites) {
+            candidates.add(fieldWrite.method);
+        }
+        analyze(candidates);
+        return fieldWrites;
+    }
+
+    /**
+     * Get signatures of methods writing to field with specified name.
+     *
+     * @param fieldName the field name
+     *
+     * @return the method signatures
+     */
+    List<String> findWritingMethods(String fieldName) {
+        List<String> result = new ArrayList<>();
+        for (FieldWrite fieldWrite : fieldWrites) {
+            if (fieldWrite.fieldName.equals(fieldName)) {
+                result.add(fieldWrite.getMethod());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get signatures of methods calling one of specified methods on value of
+     * field with specified name. Only methods loading the field and
+     * containing matching invocations are analyzed.
+     *
+     * @param fieldName   the field name
+     * @param methodNames the names of called methods
+     *
+     * @return the method signatures
+     */
+    List<String> findInvokingMethods(String fieldName, Collection<String> methodNames) {
+        List<Invocation> candidates = new ArrayList<>();
+        for (Invocation invocation : invocations) {
+            if (invocation.method.readFields.contains(fieldName) && invocation.invokes(methodNames)) {
+                candidates.add(invocation);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        analyze(candidates
+                        .stream()
+                        .map(invocation -> invocation.method)
+                        .collect(Collectors.toSet()));
+
+        List<String> result = new ArrayList<>();
+        for (Invocation invocation : candidates) {
+            if (invocation.consumedFields.contains(fieldName)) {
+                result.add(invocation.method.name + invocation.method.desc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get calls between methods of class, including method references of
+     * {@code invokedynamic} instructions.
+     *
+     * @param excludedNames the names of method references that are not
+     *                      considered calls
+     *
+     * @return the map of method signature {@literal ->} signatures of calling
+     *         methods
+     */
+    Map<String, Set<String>> getSelfReferences(List<String> excludedNames) {
+        return selfReferences.computeIfAbsent(
+                excludedNames,
+                key -> {
+                    Map<String, Set<String>> result = new HashMap<>();
+                    selfCalls.forEach((callee, callers) -> result.put(
+                            callee,
+                            new HashSet<>(callers)
+                    ));
+                    for (Invocation invocation : invocations) {
+                        String callChain = null;
+                        for (int i = 0; i < invocation.names.length; i++) {
+                            if (invocation.chains[i] != null && !key.contains(invocation.names[i])) {
+                                callChain = invocation.chains[i];
+                            }
+                        }
+                        if (callChain != null) {
+                            result.computeIfAbsent(
+                                    callChain,
+                                    s -> new HashSet<>()
+                            ).add(invocation.method.name + invocation.method.desc);
+                        }
+                    }
+                    return result;
+                }
+        );
+    }
+
+    /**
+     * Get fields of other classes read by this class.
+     *
+     * @return the set of {@code owner.name} strings
+     */
+    Set<String> getExposedReadingFields() {
+        return exposedReadingFields;
+    }
+
+    /**
+     * Get fields of other classes updated by this class.
+     *
+     * @return the set of {@code owner.name} strings
+     */
+    Set<String> getExposedWritingFields() {
+        return exposedWritingFields;
+    }
+
+    /**
+     * Get methods of other classes called by this class.
+     *
+     * @return the set of {@code owner.namedesc} strings
+     */
+    Set<String> getExposedMethods() {
+        return exposedMethods;
+    }
+
+    /**
+     * Method declared in class.
+     */
+    static final class MethodInfo {
+
+        private final int access;
+
+        private final String desc;
+
+        private final List<FieldWrite> fieldWrites = new ArrayList<>();
+
+        private final List<Invocation> invocations = new ArrayList<>();
+
+        private final String name;
+
+        private final Set<String> readFields = new HashSet<>();
+
+        private boolean analyzed;
+
+        private volatile int symbol = -1;
+
+        private MethodInfo(String name, String desc, int access) {
+            this.name   = name;
+            this.desc   = desc;
+            this.access = access;
+        }
+
+        int getAccess() {
+            return access;
+        }
+
+        String getDesc() {
+            return desc;
+        }
+
+        String getName() {
+            return name;
+        }
+
+    }
+
+    /**
+     * Value stored to field by {@code putfield} or {@code putstatic}.
+     */
+    static final class FieldWrite {
+
+        private final boolean array;
+
+        private final String fieldName;
+
+        private final int instruction;
+
+        private final MethodInfo method;
+
+        private List<String> valueTypes = Collections.emptyList();
+
+        private FieldWrite(MethodInfo method, int instruction, String fieldName, boolean array) {
+            this.method      = method;
+            this.instruction = instruction;
+            this.fieldName   = fieldName;
+            this.array       = array;
+        }
+
+        String getFieldName() {
+            return fieldName;
+        }
+
+        String getMethod() {
+            return method.name + method.desc;
+        }
+
+        /**
+         * Get class names of values that can be stored, as seen from
+         * instructions producing the value ({@code new}, {@code anewarray},
+         * method invocations).
+         *
+         * @return the class names
+         */
+        List<String> getValueTypes() {
+            return valueTypes;
+        }
+
+        boolean isArray() {
+            return array;
+        }
+
+    }
+
+    private static final class Invocation {
+
+        private final String[] chains;
+
+        private final int instruction;
+
+        private final MethodInfo method;
+
+        private final String[] names;
+
+        private Set<String> consumedFields = Collections.emptySet();
+
+        private Invocation(MethodInfo method, int instruction, String[] names, String[] chains) {
+            this.method      = method;
+            this.instruction = instruction;
+            this.names       = names;
+            this.chains      = chains;
+        }
+
+        private boolean invokes(Collection<String> methodNames) {
+            for (String invokedName : names) {
+                if (methodNames.contains(invokedName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import com.github.fluorumlabs.cqt.utils.Unreflection;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Flattened instance field layout of a class, including fields declared in
+ * superclasses.
+ */
+final class ClassLayout {
+
+    private final FieldAccessor[] instanceFields;
+
+    /**
+     * Instantiates a new class layout.
+     *
+     * @param clazz          the class
+     * @param possibleValues the function returning possible values of fields
+     *                       declared in a class
+     */
+    ClassLayout(Class<?> clazz,
+                Function<Class<?>, Map<String, Set<PossibleValue>>> possibleValues) {
+        List<FieldAccessor> accessors     = new ArrayList<>();
+        Class<?>            visitingClass = clazz;
+        while (visitingClass != null && !Object.class.equals(visitingClass)) {
+            Map<String, Set<PossibleValue>> declaredPossibleValues = possibleValues.apply(visitingClass);
+            for (Field field : Unreflection.getDeclaredFields(visitingClass)) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    Set<PossibleValue> fieldPossibleValues = declaredPossibleValues.get(field.getName());
+                    accessors.add(new FieldAccessor(
+                            field,
+                            fieldPossibleValues == null
+                            ? Collections.emptySet()
+                            : fieldPossibleValues
+                    ));
+                }
+            }
+            visitingClass = visitingClass.getSuperclass();
+        }
+        this.instanceFields = accessors.toArray(new FieldAccessor[0]);
+    }
+
+    /**
+     * Get instance fields, starting with the ones declared in the class
+     * itself.
+     *
+     * @return the instance fields
+     */
+    FieldAccessor[] getInstanceFields() {
+        return instanceFields;
+    }
+
+    /**
+     * Instance field with a bound getter.
+     */
+    static final class FieldAccessor {
+
+        private final Field field;
+
+        @Nullable
+        private final MethodHandle getter;
+
+        private final Set<PossibleValue> possibleValues;
+
+        private FieldAccessor(Field field, Set<PossibleValue> possibleValues) {
+            this.field          = field;
+            this.possibleValues = possibleValues;
+            this.getter         = getterOf(field);
+        }
+
+        @Nullable
+        private static MethodHandle getterOf(Field field) {
+            try {
+                // Fields that cannot be made accessible are skipped
+                field.setAccessible(true);
+                return Unreflection.getFieldGetter(field);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Get field.
+         *
+         * @return the field
+         */
+        Field getField() {
+            return field;
+        }
+
+        /**
+         * Get possible values of field. The set is shared with other
+         * instances and must not be modified.
+         *
+         * @return the possible values
+         */
+        Set<PossibleValue> getPossibleValues() {
+            return possibleValues;
+        }
+
+        /**
+         * Read field value.
+         *
+         * @param instance the instance
+         *
+         * @return the value
+         * @throws Throwable if field cannot be read
+         */
+        Object get(Object instance) throws Throwable {
+            if (getter == null) {
+                throw new IllegalAccessException("Cannot access " + field);
+            }
+            return (Object) getter.invokeExact(instance);
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import com.github.fluorumlabs.cqt.CodeQualityTestServer;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Scanner-specific classification of a class, computed once per class and
+ * cached in a {@link ClassValue}.
+ */
+final class ClassTraits {
+
+    private static final String CQT_PACKAGE = CodeQualityTestServer.class
+            .getPackage()
+            .getName();
+
+    private final boolean cascaded;
+
+    private final Container container;
+
+    private final boolean ignored;
+
+    private final boolean lambda;
+
+    private final boolean proxy;
+
+    /**
+     * Instantiates a new classification of class.
+     *
+     * @param type     the class
+     * @param skipRule the user-supplied predicate selecting additional
+     *                 classes to ignore
+     */
+    ClassTraits(Class<?> type, Predicate<Class<?>> skipRule) {
+        this.proxy     = isProxy(type);
+        this.ignored   = isIgnored(
+                type,
+                skipRule
+        );
+        this.lambda    = type.getName().contains("$Lambda");
+        this.cascaded  = !type.isPrimitive() && !type.isArray() && !type.isEnum();
+        this.container = containerOf(
+                type,
+                skipRule
+        );
+    }
+
+    private static boolean isProxy(Class<?> type) {
+        return type.getName().contains("CGLIB$$") || type.getName().contains("$Proxy");
+    }
+
+    private static boolean isIgnored(Class<?> type,
+                                     Predicate<Class<?>> skipRule) {
+        Package typePackage = type.getPackage();
+        return type.isPrimitive()
+               || type.isAnnotation()
+               || ClassLoader.class.isAssignableFrom(type)
+               || type.equals(Pattern.class)
+               || type.equals(String.class)
+               || type.equals(Void.class)
+               || type.equals(Boolean.class)
+               || type.equals(Character.class)
+               || type.equals(Byte.class)
+               || type.equals(Short.class)
+               || type.equals(Integer.class)
+               || type.equals(Long.class)
+               || type.equals(Float.class)
+               || type.equals(Double.class)
+               || isProxy(type)
+               || (typePackage != null && typePackage
+                .getName()
+                .startsWith(CQT_PACKAGE))
+               || (typePackage != null && typePackage.equals(Field.class.getPackage()))
+               || skipRule.test(type);
+    }
+
+    private static Container containerOf(Class<?> type,
+                                         Predicate<Class<?>> skipRule) {
+        if (type.isArray()) {
+            return isIgnored(
+                    type.getComponentType(),
+                    skipRule
+            ) ? Container.NONE : Container.ARRAY;
+        } else if (Optional.class.isAssignableFrom(type)) {
+            return Container.OPTIONAL;
+        } else if (Reference.class.isAssignableFrom(type)) {
+            return Container.REFERENCE;
+        } else if (AtomicReference.class.isAssignableFrom(type)) {
+            return Container.ATOMIC_REFERENCE;
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return Container.COLLECTION;
+        } else if (ThreadLocal.class.isAssignableFrom(type)) {
+            return Container.THREAD_LOCAL;
+        } else if (Map.class.isAssignableFrom(type)) {
+            return Container.MAP;
+        } else {
+            return Container.NONE;
+        }
+    }
+
+    /**
+     * Test if instances of class should be skipped: they are neither
+     * traversed nor backreferenced.
+     *
+     * @return {@code true} if class is ignored
+     */
+    boolean isIgnored() {
+        return ignored;
+    }
+
+    /**
+     * Test if instances of class should be scheduled for traversal when
+     * referenced.
+     *
+     * @return {@code true} if class is cascaded
+     */
+    boolean isCascaded() {
+        return cascaded;
+    }
+
+    /**
+     * Test if class is a lambda. Scopes are not propagated through lambdas.
+     *
+     * @return {@code true} if class is a lambda
+     */
+    boolean isLambda() {
+        return lambda;
+    }
+
+    /**
+     * Test if class looks like a proxy, which engine might be able to unwrap.
+     *
+     * @return {@code true} if class is a proxy
+     */
+    boolean isProxy() {
+        return proxy;
+    }
+
+    /**
+     * Get kind of container, which values are reported instead of container
+     * itself.
+     *
+     * @return the container kind
+     */
+    Container getContainer() {
+        return container;
+    }
+
+    /**
+     * Container kinds.
+     */
+    enum Container {
+        NONE,
+        ARRAY,
+        OPTIONAL,
+        REFERENCE,
+        ATOMIC_REFERENCE,
+        COLLECTION,
+        THREAD_LOCAL,
+        MAP
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size bit set which bits can be set concurrently.
+ */
+final class ConcurrentBitSet {
+
+    private final AtomicLongArray words;
+
+    /**
+     * Instantiates a new bit set with all bits cleared.
+     *
+     * @param size the number of bits
+     */
+    ConcurrentBitSet(int size) {
+        words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * Set bit.
+     *
+     * @param index the bit index
+     *
+     * @return {@code true} if bit was not set before
+     */
+    boolean set(int index) {
+        int  word = index >>> 6;
+        long mask = 1L << index;
+        long current;
+        do {
+            current = words.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(
+                word,
+                current,
+                current | mask
+        ));
+        return true;
+    }
+
+    /**
+     * Clear bit.
+     *
+     * @param index the bit index
+     */
+    void clear(int index) {
+        int  word = index >>> 6;
+        long mask = ~(1L << index);
+        long current;
+        do {
+            current = words.get(word);
+        } while (!words.compareAndSet(
+                word,
+                current,
+                current & mask
+        ));
+    }
+
+    /**
+     * Test bit.
+     *
+     * @param index the bit index
+     *
+     * @return {@code true} if bit is set
+     */
+    boolean get(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Get index of the first set bit starting from specified index.
+     *
+     * @param from the index to start from
+     *
+     * @return the bit index or {@code -1} if there are no set bits left
+     */
+    int nextSetBit(int from) {
+        int word = from >>> 6;
+        if (word >= words.length()) {
+            return -1;
+        }
+        long bits = words.get(word) & (-1L << from);
+        while (bits == 0) {
+            if (++word == words.length()) {
+                return -1;
+            }
+            bits = words.get(word);
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Test if no bits are set.
+     *
+     * @return {@code true} if all bits are cleared
+     */
+    boolean isEmpty() {
+        return nextSetBit(0) < 0;
+    }
+
+}
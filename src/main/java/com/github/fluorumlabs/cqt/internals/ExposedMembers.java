@@ -23,27 +23,63 @@
 
 package com.github.fluorumlabs.cqt.internals;
 
-import jdk.internal.org.objectweb.asm.ClassReader;
-import jdk.internal.org.objectweb.asm.Opcodes;
 import jdk.internal.org.objectweb.asm.Type;
-import jdk.internal.org.objectweb.asm.tree.*;
 
-import java.io.IOException;
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Helper to find all classes referensing fields or methods.
+ * <p>
+ * Members are interned to int symbols ({@code owner.name} for fields, {@code
+ * owner.namedesc} for methods), and exposure is kept in counters indexed by
+ * symbol. Symbols of {@link Field} and {@link Method} objects are cached
+ * per declaring class, so that tests of reflected members do not build
+ * names, and cached members do not keep their class loaders alive.
+ * <p>
+ * Collected classes are tracked per class loader, so that every class is
+ * collected once, unless another class with the same name is defined by the
+ * loader. Members exposed by classes of unloaded class loaders are dropped.
  */
 public class ExposedMembers {
 
-    private static final Set<String> EXPOSED_METHODS = new HashSet<>();
+    private static final LoaderClasses BOOTSTRAP_CLASSES = new LoaderClasses(
+            null,
+            null
+    );
 
-    private static final Set<String> EXPOSED_READING_FIELDS = new HashSet<>();
+    private static final Map<ClassLoader, LoaderClasses> CLASSES = new WeakHashMap<>();
 
-    private static final Set<String> EXPOSED_WRITING_FIELDS = new HashSet<>();
+    private static final Counts EXPOSED_METHODS = new Counts();
+
+    private static final Counts EXPOSED_READING_FIELDS = new Counts();
+
+    private static final Counts EXPOSED_WRITING_FIELDS = new Counts();
+
+    private static final ClassValue<Map<Member, Integer>> MEMBER_SYMBOLS = new ClassValue<Map<Member, Integer>>() {
+        @Override
+        protected Map<Member, Integer> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static final AtomicInteger SYMBOL_COUNT = new AtomicInteger();
+
+    private static final ReferenceQueue<ClassLoader> UNLOADED = new ReferenceQueue<>();
+
+    private static final Map<String, Integer> SYMBOLS = new ConcurrentHashMap<>();
 
     private final Class<?> clazz;
 
@@ -65,9 +101,7 @@ public class ExposedMembers {
      *         particular field
      */
     public static boolean isFieldExposedForReading(Field field) {
-        return EXPOSED_READING_FIELDS.contains(Type.getInternalName(field.getDeclaringClass())
-                                               + "."
-                                               + field.getName());
+        return EXPOSED_READING_FIELDS.get(symbolOf(field));
     }
 
     /**
@@ -79,9 +113,7 @@ public class ExposedMembers {
      *         particular field
      */
     public static boolean isFieldExposedForWriting(Field field) {
-        return EXPOSED_WRITING_FIELDS.contains(Type.getInternalName(field.getDeclaringClass())
-                                               + "."
-                                               + field.getName());
+        return EXPOSED_WRITING_FIELDS.get(symbolOf(field));
     }
 
     /**
@@ -93,10 +125,7 @@ public class ExposedMembers {
      *         particular method
      */
     public static boolean isMethodExposed(Method method) {
-        return EXPOSED_METHODS.contains(Type.getInternalName(method.getDeclaringClass())
-                                        + "."
-                                        + method.getName()
-                                        + Type.getMethodDescriptor(method));
+        return EXPOSED_METHODS.get(symbolOf(method));
     }
 
     /**
@@ -109,7 +138,10 @@ public class ExposedMembers {
      *         particular field
      */
     static boolean isFieldExposedForReading(String owner, String field) {
-        return EXPOSED_READING_FIELDS.contains(owner + "." + field);
+        return EXPOSED_READING_FIELDS.get(fieldSymbol(
+                owner,
+                field
+        ));
     }
 
     /**
@@ -122,71 +154,255 @@ public class ExposedMembers {
      *         particular field
      */
     static boolean isFieldExposedForWriting(String owner, String field) {
-        return EXPOSED_WRITING_FIELDS.contains(owner + "." + field);
+        return EXPOSED_WRITING_FIELDS.get(fieldSymbol(
+                owner,
+                field
+        ));
     }
 
     /**
      * Test if method is called from other classes.
      *
-     * @param owner  the ASM internal name for class
-     * @param method the method name
-     * @param desc   the ASM method descriptor
+     * @param symbol the method symbol
      *
      * @return {@code true} if there are other classes that can call that
      *         particular method
+     * @see ExposedMembers#methodSymbol(String, String, String)
      */
-    static boolean isMethodExposed(String owner, String method, String desc) {
-        return EXPOSED_METHODS.contains(owner + "." + method + desc);
+    static boolean isMethodExposed(int symbol) {
+        return EXPOSED_METHODS.get(symbol);
     }
 
     /**
-     * Collect all fields/methods referenced from specified class.
+     * Get symbol of field.
+     *
+     * @param owner the ASM internal name for class
+     * @param field the field name
+     *
+     * @return the symbol
      */
-    public void collect() {
-        try {
-            collectExposedMembers();
-        } catch (IOException e) {
-            // ignore
+    static int fieldSymbol(String owner, String field) {
+        return symbol(owner + "." + field);
+    }
+
+    /**
+     * Get symbol of method.
+     *
+     * @param owner  the ASM internal name for class
+     * @param method the method name
+     * @param desc   the ASM method descriptor
+     *
+     * @return the symbol
+     */
+    static int methodSymbol(String owner, String method, String desc) {
+        return symbol(owner + "." + method + desc);
+    }
+
+    private static int symbolOf(Field field) {
+        Map<Member, Integer> symbols = MEMBER_SYMBOLS.get(field.getDeclaringClass());
+        Integer              symbol  = symbols.get(field);
+        if (symbol == null) {
+            symbol = fieldSymbol(
+                    Type.getInternalName(field.getDeclaringClass()),
+                    field.getName()
+            );
+            symbols.put(
+                    field,
+                    symbol
+            );
         }
+        return symbol;
     }
 
-    private void collectExposedMembers() throws IOException {
-        ClassNode   classNode = new ClassNode();
-        ClassReader cr        = new ClassReader(clazz.getName());
-        cr.accept(
-                classNode,
-                0
+    private static int symbolOf(Method method) {
+        Map<Member, Integer> symbols = MEMBER_SYMBOLS.get(method.getDeclaringClass());
+        Integer              symbol  = symbols.get(method);
+        if (symbol == null) {
+            symbol = methodSymbol(
+                    Type.getInternalName(method.getDeclaringClass()),
+                    method.getName(),
+                    Type.getMethodDescriptor(method)
+            );
+            symbols.put(
+                    method,
+                    symbol
+            );
+        }
+        return symbol;
+    }
+
+    private static int symbol(String member) {
+        Integer symbol = SYMBOLS.get(member);
+        return symbol != null ? symbol : SYMBOLS.computeIfAbsent(
+                member,
+                key -> SYMBOL_COUNT.getAndIncrement()
         );
+    }
+
+    /**
+     * Collect all fields/methods referenced from specified class, unless the
+     * class is already collected.
+     *
+     * @return {@code true} if class was collected by this call
+     */
+    public boolean collect() {
+        synchronized (CLASSES) {
+            dropUnloaded();
+            ClassLoader   classLoader   = clazz.getClassLoader();
+            LoaderClasses loaderClasses = BOOTSTRAP_CLASSES;
+            if (classLoader != null) {
+                loaderClasses = CLASSES.computeIfAbsent(
+                        classLoader,
+                        loader -> new LoaderClasses(
+                                loader,
+                                UNLOADED
+                        )
+                );
+            }
+            CollectedClass previous = loaderClasses.classes.get(clazz.getName());
+            if (previous != null) {
+                if (previous.clazz.get() == clazz) {
+                    return false;
+                }
+                // Class was redefined
+                previous.release();
+            }
+            ClassIndex     index     = ClassIndex.of(clazz);
+            CollectedClass collected = new CollectedClass(
+                    clazz,
+                    symbols(index.getExposedWritingFields()),
+                    symbols(index.getExposedReadingFields()),
+                    symbols(index.getExposedMethods())
+            );
+            loaderClasses.classes.put(
+                    clazz.getName(),
+                    collected
+            );
+            collected.add(1);
+            return true;
+        }
+    }
+
+    private static int[] symbols(Set<String> members) {
+        int[] symbols = new int[members.size()];
+        int   i       = 0;
+        for (String member : members) {
+            symbols[i++] = symbol(member);
+        }
+        return symbols;
+    }
+
+    private static void dropUnloaded() {
+        Reference<? extends ClassLoader> unloaded = UNLOADED.poll();
+        while (unloaded != null) {
+            for (CollectedClass collected : ((LoaderClasses) unloaded).classes.values()) {
+                collected.release();
+            }
+            unloaded = UNLOADED.poll();
+        }
+    }
+
+    /**
+     * Classes collected from a class loader. Loader is referenced weakly,
+     * and is enqueued once it is unloaded.
+     */
+    private static final class LoaderClasses extends WeakReference<ClassLoader> {
+
+        private final Map<String, CollectedClass> classes = new HashMap<>();
+
+        private LoaderClasses(@Nullable ClassLoader classLoader,
+                              @Nullable ReferenceQueue<ClassLoader> queue) {
+            super(
+                    classLoader,
+                    queue
+            );
+        }
+
+    }
+
+    /**
+     * Members exposed by collected class.
+     */
+    private static final class CollectedClass {
+
+        private final WeakReference<Class<?>> clazz;
+
+        private final int[] methods;
+
+        private final int[] readingFields;
 
-        for (MethodNode method : classNode.methods) {
-            AbstractInsnNode[] abstractInsnNodes = method.instructions.toArray();
-            for (int i = 0; i < abstractInsnNodes.length; i++) {
-                if (abstractInsnNodes[i] instanceof FieldInsnNode) {
-                    FieldInsnNode insn = (FieldInsnNode) abstractInsnNodes[i];
-                    if (!insn.owner.equals(classNode.name)) {
-                        if (insn.getOpcode() == Opcodes.PUTFIELD
-                            || insn.getOpcode() == Opcodes.PUTSTATIC) {
-                            EXPOSED_WRITING_FIELDS.add(insn.owner
-                                                       + "."
-                                                       + insn.name);
-                        } else if (insn.getOpcode() == Opcodes.GETFIELD
-                                   || insn.getOpcode() == Opcodes.GETSTATIC) {
-                            EXPOSED_READING_FIELDS.add(insn.owner
-                                                       + "."
-                                                       + insn.name);
-                        }
-                    }
-                } else if (abstractInsnNodes[i] instanceof MethodInsnNode) {
-                    MethodInsnNode insn = (MethodInsnNode) abstractInsnNodes[i];
-                    if (!insn.owner.equals(classNode.name)) {
-                        EXPOSED_METHODS.add(insn.owner
-                                            + "."
-                                            + insn.name
-                                            + insn.desc);
-                    }
+        private final int[] writingFields;
+
+        private CollectedClass(Class<?> clazz, int[] writingFields, int[] readingFields, int[] methods) {
+            this.clazz         = new WeakReference<>(clazz);
+            this.writingFields = writingFields;
+            this.readingFields = readingFields;
+            this.methods       = methods;
+        }
+
+        private void add(int delta) {
+            for (int symbol : writingFields) {
+                EXPOSED_WRITING_FIELDS.add(
+                        symbol,
+                        delta
+                );
+            }
+            for (int symbol : readingFields) {
+                EXPOSED_READING_FIELDS.add(
+                        symbol,
+                        delta
+                );
+            }
+            for (int symbol : methods) {
+                EXPOSED_METHODS.add(
+                        symbol,
+                        delta
+                );
+            }
+        }
+
+        private void release() {
+            add(-1);
+        }
+
+    }
+
+    /**
+     * Number of collected classes exposing every symbol, with lock-free
+     * reads. Writes are serialized, so that updates made while the array
+     * grows are not lost.
+     */
+    private static final class Counts {
+
+        private volatile AtomicIntegerArray counts = new AtomicIntegerArray(1024);
+
+        boolean get(int index) {
+            AtomicIntegerArray current = counts;
+            return index < current.length() && current.get(index) > 0;
+        }
+
+        synchronized void add(int index, int delta) {
+            AtomicIntegerArray current = counts;
+            if (index >= current.length()) {
+                AtomicIntegerArray grown = new AtomicIntegerArray(Math.max(
+                        current.length() * 2,
+                        index + 1
+                ));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(
+                            i,
+                            current.get(i)
+                    );
                 }
+                counts  = grown;
+                current = grown;
             }
+            current.addAndGet(
+                    index,
+                    delta
+            );
         }
+
     }
 
 }
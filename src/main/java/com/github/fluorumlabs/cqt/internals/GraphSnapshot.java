@@ -0,0 +1,820 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import com.github.fluorumlabs.cqt.data.ReferenceType;
+import com.github.fluorumlabs.cqt.data.Unknown;
+import com.github.fluorumlabs.cqt.utils.Unreflection;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.github.fluorumlabs.cqt.internals.HeapDump.UNSAFE;
+
+/**
+ * Compact binary snapshot of {@link ObjectGraph}, so that analysis and
+ * rendering can run later, in another process, without the live heap.
+ * <p>
+ * Snapshot starts with a table of strings (class and field names, scopes,
+ * string values), followed by fields, nodes and edges. Edges are kept in
+ * their original order, so that reverse index of the graph is rebuilt the
+ * same way. Node ids and table references are varint-encoded, reference
+ * types are stored as ordinals. Snapshot is read sequentially
+ * from memory-mapped windows of the file.
+ * <p>
+ * Objects are rebuilt as shells: instances allocated without running
+ * constructors, with reference fields restored from edges. Strings, boxed
+ * primitives, enum constants, classes and {@link PossibleValue}s are
+ * restored as is, arrays keep their length but not their content. Objects of
+ * classes which cannot be loaded are replaced with {@link Unknown}. So are
+ * instances and enum constants of classes which are not initialized yet,
+ * unless static initializers are allowed to run.
+ */
+final class GraphSnapshot {
+
+    private static final byte[] MAGIC = {'C', 'Q', 'T', 'S'};
+
+    private static final int VERSION = 1;
+
+    private static final int OBJECT = 0;
+
+    private static final int CLASS = 1;
+
+    private static final int STRING = 2;
+
+    private static final int VALUE = 3;
+
+    private static final int ENUM = 4;
+
+    private static final int ARRAY = 5;
+
+    private static final int POSSIBLE_VALUE = 6;
+
+    private static final int UNKNOWN = 7;
+
+    private static final int VISITED = 1;
+
+    private static final int BACKREFERENCED = 0x40;
+
+    private static final int CASCADED = 0x20;
+
+    private static final int HAS_EXTRAS = 0x80;
+
+    private static final int TYPE_MASK = 0x1F;
+
+    private static final long WINDOW = 64L << 20;
+
+    private static final ReferenceType[] REFERENCE_TYPES = ReferenceType.values();
+
+    private GraphSnapshot() {
+        // Static methods only
+    }
+
+    /**
+     * Write frozen graph to file.
+     *
+     * @param graph the graph
+     * @param file  the file
+     *
+     * @throws IOException if file cannot be written
+     */
+    static void write(ObjectGraph graph, Path file) throws IOException {
+        int                  nodeCount = graph.nodeCount();
+        Map<String, Integer> strings   = new LinkedHashMap<>();
+        Map<Field, Integer>  fields    = new LinkedHashMap<>();
+        Map<Integer, int[]>  methods   = new HashMap<>();
+        int[]                kinds     = new int[nodeCount];
+        int[]                first     = new int[nodeCount];
+        int[]                second    = new int[nodeCount];
+
+        for (int node = 0; node < nodeCount; node++) {
+            Object object = graph.node(node);
+            if (object == null) {
+                kinds[node] = UNKNOWN;
+            } else if (object instanceof Class) {
+                kinds[node] = CLASS;
+                first[node] = intern(
+                        strings,
+                        ((Class<?>) object).getName()
+                );
+            } else if (object instanceof String) {
+                kinds[node] = STRING;
+                first[node] = intern(
+                        strings,
+                        (String) object
+                );
+            } else if (object instanceof Enum) {
+                kinds[node]  = ENUM;
+                first[node]  = intern(
+                        strings,
+                        ((Enum<?>) object).getDeclaringClass().getName()
+                );
+                second[node] = intern(
+                        strings,
+                        ((Enum<?>) object).name()
+                );
+            } else if (isValue(object)) {
+                kinds[node]  = VALUE;
+                first[node]  = intern(
+                        strings,
+                        object.getClass().getName()
+                );
+                second[node] = intern(
+                        strings,
+                        object.toString()
+                );
+            } else if (object.getClass().isArray()) {
+                kinds[node]  = ARRAY;
+                first[node]  = intern(
+                        strings,
+                        object.getClass().getName()
+                );
+                second[node] = Array.getLength(object);
+            } else if (object instanceof PossibleValue) {
+                PossibleValue possibleValue = (PossibleValue) object;
+                kinds[node]  = POSSIBLE_VALUE;
+                first[node]  = intern(
+                        strings,
+                        possibleValue.getType().getName()
+                );
+                second[node] = intern(
+                        strings,
+                        possibleValue.getOwner().getName()
+                );
+                methods.put(
+                        node,
+                        possibleValue
+                                .getMethods()
+                                .stream()
+                                .mapToInt(method -> intern(
+                                        strings,
+                                        method
+                                ))
+                                .toArray()
+                );
+            } else {
+                kinds[node] = OBJECT;
+                first[node] = intern(
+                        strings,
+                        object.getClass().getName()
+                );
+            }
+            intern(
+                    strings,
+                    graph.inheritedScope(node)
+            );
+            if (graph.isVisited(node)) {
+                intern(
+                        strings,
+                        graph.ownScope(node)
+                );
+                int end = graph.forwardEnd(node);
+                for (int position = graph.forwardStart(node); position < end; position++) {
+                    Field field = graph.edgeField(graph.forwardEdge(position));
+                    if (field != null && !fields.containsKey(field)) {
+                        fields.put(
+                                field,
+                                fields.size()
+                        );
+                        intern(
+                                strings,
+                                field.getDeclaringClass().getName()
+                        );
+                        intern(
+                                strings,
+                                field.getName()
+                        );
+                    }
+                }
+            }
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.write(MAGIC);
+            output.writeByte(VERSION);
+
+            writeVarint(
+                    output,
+                    strings.size()
+            );
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                writeVarint(
+                        output,
+                        bytes.length
+                );
+                output.write(bytes);
+            }
+
+            writeVarint(
+                    output,
+                    fields.size()
+            );
+            for (Field field : fields.keySet()) {
+                writeVarint(
+                        output,
+                        strings.get(field.getDeclaringClass().getName())
+                );
+                writeVarint(
+                        output,
+                        strings.get(field.getName())
+                );
+            }
+
+            writeVarint(
+                    output,
+                    nodeCount
+            );
+            for (int node = 0; node < nodeCount; node++) {
+                int kind = kinds[node];
+                output.writeByte(kind);
+                if (kind != UNKNOWN) {
+                    writeVarint(
+                            output,
+                            first[node]
+                    );
+                }
+                if (kind == VALUE || kind == ENUM || kind == ARRAY || kind == POSSIBLE_VALUE) {
+                    writeVarint(
+                            output,
+                            second[node]
+                    );
+                }
+                if (kind == POSSIBLE_VALUE) {
+                    int[] ids = methods.get(node);
+                    writeVarint(
+                            output,
+                            ids.length
+                    );
+                    for (int id : ids) {
+                        writeVarint(
+                                output,
+                                id
+                        );
+                    }
+                }
+                writeVarint(
+                        output,
+                        scopeId(
+                                strings,
+                                graph.inheritedScope(node)
+                        )
+                );
+                if (graph.isVisited(node)) {
+                    output.writeByte(VISITED);
+                    writeVarint(
+                            output,
+                            scopeId(
+                                    strings,
+                                    graph.ownScope(node)
+                            )
+                    );
+                } else {
+                    output.writeByte(0);
+                }
+            }
+
+            int edgeCount = graph.edgeCount();
+            writeVarint(
+                    output,
+                    edgeCount
+            );
+            for (int edge = 0; edge < edgeCount; edge++) {
+                Field field      = graph.edgeField(edge);
+                int   extraStart = graph.extraStart(edge);
+                int   extraEnd   = graph.extraEnd(edge);
+                writeVarint(
+                        output,
+                        graph.edgeSource(edge)
+                );
+                writeVarint(
+                        output,
+                        graph.edgeTarget(edge) + 1
+                );
+                writeVarint(
+                        output,
+                        field == null ? 0 : fields.get(field) + 1
+                );
+                output.writeByte(graph.edgeType(edge).ordinal()
+                                 | (graph.isBackreferenced(edge) ? BACKREFERENCED : 0)
+                                 | (graph.isCascaded(edge) ? CASCADED : 0)
+                                 | (extraEnd > extraStart ? HAS_EXTRAS : 0));
+                if (extraEnd > extraStart) {
+                    writeVarint(
+                            output,
+                            extraEnd - extraStart
+                    );
+                    for (int extra = extraStart; extra < extraEnd; extra++) {
+                        writeVarint(
+                                output,
+                                graph.extraTarget(extra)
+                        );
+                        writeVarint(
+                                output,
+                                graph.extraOwner(extra)
+                        );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read snapshot into empty graph and freeze it.
+     *
+     * @param file              the file
+     * @param graph             the graph
+     * @param classLoader       the class loader used to load classes of
+     *                          objects
+     * @param initializeClasses {@code true} to allow static initializers to
+     *                          run when objects are rebuilt
+     *
+     * @return the names of classes which objects were not rebuilt, as that
+     *         would initialize them
+     *
+     * @throws IOException if file cannot be read or is not a snapshot
+     */
+    static Set<String> read(Path file,
+                            ObjectGraph graph,
+                            ClassLoader classLoader,
+                            boolean initializeClasses) throws IOException {
+        Set<String> uninitializedClasses = new TreeSet<>();
+        try (Input input = new Input(file)) {
+            for (byte magic : MAGIC) {
+                if (input.u1() != magic) {
+                    throw new IOException(file + " is not a snapshot");
+                }
+            }
+            int version = input.u1();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " of " + file);
+            }
+
+            String[] strings = new String[input.varint()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = new String(
+                        input.bytes(input.varint()),
+                        StandardCharsets.UTF_8
+                );
+            }
+
+            Map<String, Optional<Class<?>>> types  = new HashMap<>();
+            Field[]                         fields = new Field[input.varint()];
+            for (int i = 0; i < fields.length; i++) {
+                Class<?> declaringClass = load(
+                        types,
+                        strings[input.varint()],
+                        classLoader
+                );
+                String name = strings[input.varint()];
+                if (declaringClass != null) {
+                    try {
+                        fields[i] = Unreflection.getDeclaredField(
+                                declaringClass,
+                                name
+                        );
+                    } catch (Throwable e) {
+                        // Field was removed from class
+                    }
+                }
+            }
+
+            int       nodeCount       = input.varint();
+            Object[]  objects         = new Object[nodeCount];
+            boolean[] shells          = new boolean[nodeCount];
+            int[]     inheritedScopes = new int[nodeCount];
+            int[]     ownScopes       = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                int kind = input.u1();
+                switch (kind) {
+                    case OBJECT: {
+                        Class<?> type = load(
+                                types,
+                                strings[input.varint()],
+                                classLoader
+                        );
+                        objects[node] = canInitialize(
+                                type,
+                                initializeClasses,
+                                uninitializedClasses
+                        ) ? allocate(type) : null;
+                        shells[node]  = objects[node] != null;
+                        break;
+                    }
+                    case CLASS:
+                        objects[node] = load(
+                                types,
+                                strings[input.varint()],
+                                classLoader
+                        );
+                        break;
+                    case STRING:
+                        objects[node] = strings[input.varint()];
+                        break;
+                    case VALUE:
+                        objects[node] = parseValue(
+                                strings[input.varint()],
+                                strings[input.varint()]
+                        );
+                        break;
+                    case ENUM: {
+                        Class<?> type = load(
+                                types,
+                                strings[input.varint()],
+                                classLoader
+                        );
+                        String   name = strings[input.varint()];
+                        objects[node] = canInitialize(
+                                type,
+                                initializeClasses,
+                                uninitializedClasses
+                        ) ? enumConstant(
+                                type,
+                                name
+                        ) : null;
+                        break;
+                    }
+                    case ARRAY: {
+                        Class<?> type   = load(
+                                types,
+                                strings[input.varint()],
+                                classLoader
+                        );
+                        int      length = input.varint();
+                        objects[node] = type == null ? null : Array.newInstance(
+                                type.getComponentType(),
+                                length
+                        );
+                        break;
+                    }
+                    case POSSIBLE_VALUE: {
+                        Class<?> type  = load(
+                                types,
+                                strings[input.varint()],
+                                classLoader
+                        );
+                        Class<?> owner = load(
+                                types,
+                                strings[input.varint()],
+                                classLoader
+                        );
+                        int      count = input.varint();
+                        if (type != null && owner != null) {
+                            PossibleValue possibleValue = new PossibleValue(
+                                    type,
+                                    owner
+                            );
+                            for (int i = 0; i < count; i++) {
+                                possibleValue.addMethod(strings[input.varint()]);
+                            }
+                            objects[node] = possibleValue;
+                        } else {
+                            for (int i = 0; i < count; i++) {
+                                input.varint();
+                            }
+                        }
+                        break;
+                    }
+                    case UNKNOWN:
+                        break;
+                    default:
+                        throw new IOException("Unknown node kind " + kind + " in " + file);
+                }
+                if (objects[node] == null) {
+                    objects[node] = new Unknown();
+                }
+                inheritedScopes[node] = input.varint();
+                ownScopes[node]       = (input.u1() & VISITED) != 0 ? input.varint() : -1;
+            }
+
+            ObjectGraph.Writer writer = graph.writer();
+            int[]              ids    = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                ids[node] = writer.node(objects[node]);
+            }
+            // Edges are added in original order, which is the order of reverse index
+            for (int node = 0; node < nodeCount; node++) {
+                if (ownScopes[node] >= 0) {
+                    writer.visit(
+                            objects[node],
+                            scope(
+                                    strings,
+                                    ownScopes[node]
+                            ),
+                            ObjectGraph.NO_FINGERPRINT
+                    );
+                }
+            }
+            int edgeCount = input.varint();
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int           source = input.varint();
+                int           target = input.varint() - 1;
+                int           field  = input.varint() - 1;
+                int           label  = input.u1();
+                ReferenceType type   = REFERENCE_TYPES[label & TYPE_MASK];
+                int handle = writer.edge(
+                        ids[source],
+                        target < 0 ? ObjectGraph.NONE : ids[target],
+                        field < 0 ? null : fields[field],
+                        type,
+                        (label & BACKREFERENCED) != 0,
+                        (label & CASCADED) != 0
+                );
+                if ((label & HAS_EXTRAS) != 0) {
+                    int extras = input.varint();
+                    for (int extra = 0; extra < extras; extra++) {
+                        writer.backreference(
+                                ids[input.varint()],
+                                ids[input.varint()],
+                                handle
+                        );
+                    }
+                }
+                if (shells[source] && target >= 0 && field >= 0 && type == ReferenceType.ACTUAL_VALUE) {
+                    restore(
+                            objects[source],
+                            fields[field],
+                            objects[target]
+                    );
+                }
+            }
+
+            graph.freeze();
+            for (int node = 0; node < nodeCount; node++) {
+                graph.setInheritedScope(
+                        ids[node],
+                        scope(
+                                strings,
+                                inheritedScopes[node]
+                        )
+                );
+            }
+        }
+        return uninitializedClasses;
+    }
+
+    private static int intern(Map<String, Integer> strings, @Nullable String string) {
+        if (string == null) {
+            return -1;
+        }
+        Integer id = strings.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.put(
+                    string,
+                    id
+            );
+        }
+        return id;
+    }
+
+    private static int scopeId(Map<String, Integer> strings, @Nullable String scope) {
+        return scope == null ? 0 : strings.get(scope) + 1;
+    }
+
+    @Nullable
+    private static String scope(String[] strings, int id) {
+        return id == 0 ? null : strings[id - 1];
+    }
+
+    private static boolean isValue(Object object) {
+        return object instanceof Integer
+               || object instanceof Long
+               || object instanceof Short
+               || object instanceof Byte
+               || object instanceof Character
+               || object instanceof Boolean
+               || object instanceof Float
+               || object instanceof Double;
+    }
+
+    @Nullable
+    private static Object parseValue(String type, String value) {
+        switch (type) {
+            case "java.lang.Integer":
+                return Integer.valueOf(value);
+            case "java.lang.Long":
+                return Long.valueOf(value);
+            case "java.lang.Short":
+                return Short.valueOf(value);
+            case "java.lang.Byte":
+                return Byte.valueOf(value);
+            case "java.lang.Character":
+                return value.charAt(0);
+            case "java.lang.Boolean":
+                return Boolean.valueOf(value);
+            case "java.lang.Float":
+                return Float.valueOf(value);
+            case "java.lang.Double":
+                return Double.valueOf(value);
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumConstant(@Nullable Class<?> type, String name) {
+        try {
+            return type == null ? null : Enum.valueOf(
+                    (Class<? extends Enum>) type,
+                    name
+            );
+        } catch (Throwable e) {
+            // Constant was removed or enum cannot be initialized
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Class<?> load(Map<String, Optional<Class<?>>> types, String name, ClassLoader classLoader) {
+        return types.computeIfAbsent(
+                name,
+                n -> {
+                    try {
+                        return Optional.of(Class.forName(
+                                n,
+                                false,
+                                classLoader
+                        ));
+                    } catch (Throwable e) {
+                        // Class is generated at runtime or missing in class path
+                        return Optional.empty();
+                    }
+                }
+        ).orElse(null);
+    }
+
+    private static boolean canInitialize(@Nullable Class<?> type,
+                                         boolean initializeClasses,
+                                         Set<String> uninitializedClasses) {
+        if (type == null || initializeClasses || HeapDump.isInitialized(type)) {
+            return true;
+        }
+        // Rebuilding object would run static initializer of class
+        uninitializedClasses.add(type.getName());
+        return false;
+    }
+
+    @Nullable
+    private static Object allocate(@Nullable Class<?> type) {
+        if (type == null || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        try {
+            return UNSAFE.allocateInstance(type);
+        } catch (Throwable e) {
+            // Class cannot be initialized
+            return null;
+        }
+    }
+
+    private static void restore(Object owner, @Nullable Field field, Object value) {
+        if (field == null
+            || Modifier.isStatic(field.getModifiers())
+            || field.getType().isPrimitive()
+            || !field.getDeclaringClass().isInstance(owner)
+            || !field.getType().isInstance(value)) {
+            return;
+        }
+        try {
+            UNSAFE.putObject(
+                    owner,
+                    UNSAFE.objectFieldOffset(field),
+                    value
+            );
+        } catch (Throwable e) {
+            // Field is not accessible
+        }
+    }
+
+    private static void writeVarint(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    /**
+     * Sequential reader of memory-mapped file windows.
+     */
+    private static final class Input implements Closeable {
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private long base;
+
+        private MappedByteBuffer buffer;
+
+        private Input(Path file) throws IOException {
+            channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.READ
+            );
+            size    = channel.size();
+            buffer  = map(0);
+        }
+
+        private MappedByteBuffer map(long position) throws IOException {
+            base = position;
+            return channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    position,
+                    Math.min(
+                            WINDOW,
+                            size - position
+                    )
+            );
+        }
+
+        private void ensureRemaining() throws IOException {
+            if (!buffer.hasRemaining()) {
+                long position = base + buffer.limit();
+                if (position >= size) {
+                    throw new IOException("Unexpected end of snapshot");
+                }
+                buffer = map(position);
+            }
+        }
+
+        int u1() throws IOException {
+            ensureRemaining();
+            return buffer.get() & 0xFF;
+        }
+
+        int varint() throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = u1();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        byte[] bytes(int length) throws IOException {
+            byte[] bytes  = new byte[length];
+            int    offset = 0;
+            while (offset < length) {
+                ensureRemaining();
+                int chunk = Math.min(
+                        length - offset,
+                        buffer.remaining()
+                );
+                buffer.get(
+                        bytes,
+                        offset,
+                        chunk
+                );
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,1118 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import com.github.fluorumlabs.cqt.utils.Unreflection;
+import sun.misc.Unsafe;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.github.fluorumlabs.cqt.internals.HprofFile.*;
+
+/**
+ * Objects of HPROF heap dump, rebuilt as instances of application classes so
+ * that they can be scanned as live objects. Dump is indexed in two
+ * sequential passes over memory-mapped file: first pass reads classes,
+ * second one records positions of objects in a memory-mapped
+ * {@link LongIndex}. Objects are rebuilt lazily: referenced objects are
+ * allocated as empty instances, and their fields are set once scanner
+ * visits them with {@link HeapDump#fill(Object)}. Contents of JDK objects
+ * and arrays are set together with their owner, as scanner reads them
+ * through collection APIs. Rebuilt objects are dropped with {@link
+ * HeapDump#releaseObjects()} at the end of scan, so that only the index is
+ * kept between scans.
+ * <p>
+ * Classes are loaded without initialization by specified class loader and
+ * should have the same fields as in dumped JVM. Instances are allocated
+ * without running constructors. Allocation initializes the class, so
+ * instances of classes which are not initialized yet are replaced with
+ * {@code null} and reported by {@link HeapDump#getUninitializedClasses()},
+ * unless {@link HeapDump#setInitializeClasses(boolean)} allows running
+ * static initializers. Objects of classes which cannot be loaded or
+ * initialized (e.g. lambdas and generated proxies), class loaders, threads
+ * and reflection objects are replaced with {@code null}.
+ * <p>
+ * Compact strings with non-Latin-1 characters are stored in byte order of
+ * dumped JVM, which is assumed to be the same as of current JVM unless set
+ * with {@link HeapDump#setByteOrder(ByteOrder)}.
+ */
+public final class HeapDump implements Closeable {
+
+    private static final Object SKIPPED = new Object();
+
+    static final Unsafe UNSAFE;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ClassLoader classLoader;
+
+    private final Map<Long, DumpClass> classes = new HashMap<>();
+
+    private final Map<String, DumpClass> classesByName = new HashMap<>();
+
+    private final HprofFile file;
+
+    private final int idSize;
+
+    private final Map<Object, Pending> pending = new IdentityHashMap<>();
+
+    private final ObjectTable rebuilt = new ObjectTable();
+
+    private final LongIndex objects;
+
+    private final long objectCount;
+
+    private final Set<String> uninitializedClasses = new TreeSet<>();
+
+    private volatile boolean initializeClasses;
+
+    private volatile ByteOrder byteOrder = ByteOrder.nativeOrder();
+
+    private HeapDump(HprofFile file, ClassLoader classLoader) {
+        this.file        = file;
+        this.classLoader = classLoader;
+        this.idSize      = file.idSize();
+
+        Map<Long, Long> classNameIds = new HashMap<>();
+        objectCount = walk(
+                null,
+                classNameIds,
+                null
+        );
+        objects     = new LongIndex(objectCount);
+
+        Set<Long> nameIds = new HashSet<>(classNameIds.values());
+        classes.values().forEach(dumpClass -> {
+            Arrays.stream(dumpClass.staticNameIds).forEach(nameIds::add);
+            Arrays.stream(dumpClass.fieldNameIds).forEach(nameIds::add);
+        });
+        Map<Long, String> names = new HashMap<>();
+        for (Long nameId : nameIds) {
+            names.put(
+                    nameId,
+                    ""
+            );
+        }
+        walk(
+                objects,
+                null,
+                names
+        );
+
+        for (DumpClass dumpClass : classes.values()) {
+            dumpClass.name        = names
+                    .getOrDefault(
+                            classNameIds.get(dumpClass.id),
+                            ""
+                    )
+                    .replace(
+                            '/',
+                            '.'
+                    );
+            dumpClass.staticNames = namesOf(
+                    dumpClass.staticNameIds,
+                    names
+            );
+            dumpClass.fieldNames  = namesOf(
+                    dumpClass.fieldNameIds,
+                    names
+            );
+            classesByName.putIfAbsent(
+                    dumpClass.name,
+                    dumpClass
+            );
+        }
+    }
+
+    /**
+     * Open and index heap dump.
+     *
+     * @param path        the HPROF file path
+     * @param classLoader the class loader of application classes
+     *
+     * @return the heap dump
+     * @throws IOException if file cannot be read or is not a HPROF file
+     */
+    public static HeapDump open(Path path, ClassLoader classLoader) throws IOException {
+        HprofFile file = HprofFile.open(path);
+        try {
+            return new HeapDump(
+                    file,
+                    classLoader
+            );
+        } catch (RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static String[] namesOf(long[] nameIds, Map<Long, String> names) {
+        String[] result = new String[nameIds.length];
+        for (int i = 0; i < nameIds.length; i++) {
+            result[i] = names.getOrDefault(
+                    nameIds[i],
+                    ""
+            );
+        }
+        return result;
+    }
+
+    private long walk(@Nullable LongIndex objectIndex,
+                      @Nullable Map<Long, Long> classNameIds,
+                      @Nullable Map<Long, String> names) {
+        long count    = 0;
+        long position = file.firstRecord();
+        while (position < file.size()) {
+            int  tag    = file.u1(position);
+            long length = file.u4(position + 5) & 0xFFFFFFFFL;
+            long body   = position + 9;
+            if (tag == TAG_UTF8 && names != null && names.containsKey(file.id(body))) {
+                names.put(
+                        file.id(body),
+                        file.utf8(
+                                body + idSize,
+                                (int) (length - idSize)
+                        )
+                );
+            } else if (tag == TAG_LOAD_CLASS && classNameIds != null) {
+                classNameIds.put(
+                        file.id(body + 4),
+                        file.id(body + 8 + idSize)
+                );
+            } else if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+                count += walkHeapDump(
+                        body,
+                        body + length,
+                        objectIndex
+                );
+            }
+            position = body + length;
+        }
+        return count;
+    }
+
+    private long walkHeapDump(long start, long end, @Nullable LongIndex objectIndex) {
+        long count    = 0;
+        long position = start;
+        while (position < end) {
+            int  tag = file.u1(position);
+            long next;
+            switch (tag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                case ROOT_MONITOR_USED:
+                    next = position + 1 + idSize;
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    next = position + 1 + 2 * idSize;
+                    break;
+                case ROOT_NATIVE_STACK:
+                case ROOT_THREAD_BLOCK:
+                    next = position + 1 + idSize + 4;
+                    break;
+                case ROOT_JNI_LOCAL:
+                case ROOT_JAVA_FRAME:
+                case ROOT_THREAD_OBJECT:
+                    next = position + 1 + idSize + 8;
+                    break;
+                case CLASS_DUMP:
+                    next = readClass(
+                            position,
+                            objectIndex == null
+                    );
+                    break;
+                case INSTANCE_DUMP:
+                    next = position + 1 + 2 * idSize + 8 + (file.u4(position + 1 + 2 * idSize + 4) & 0xFFFFFFFFL);
+                    count++;
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    next = position + 1 + 2 * idSize + 8 + (file.u4(position + 1 + idSize + 4) & 0xFFFFFFFFL) * idSize;
+                    count++;
+                    break;
+                case PRIMITIVE_ARRAY_DUMP:
+                    next = position + 1 + idSize + 9 + (file.u4(position + 1 + idSize + 4) & 0xFFFFFFFFL)
+                                                       * file.sizeOf(file.u1(position + 1 + idSize + 8));
+                    count++;
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported heap dump record "
+                                                    + tag
+                                                    + " at "
+                                                    + position
+                                                    + " in "
+                                                    + file);
+            }
+            if (objectIndex != null
+                && (tag == INSTANCE_DUMP || tag == OBJECT_ARRAY_DUMP || tag == PRIMITIVE_ARRAY_DUMP)) {
+                objectIndex.put(
+                        file.id(position + 1),
+                        position
+                );
+            }
+            position = next;
+        }
+        return count;
+    }
+
+    private long readClass(long start, boolean register) {
+        long classId  = file.id(start + 1);
+        long superId  = file.id(start + 1 + idSize + 4);
+        long loaderId = file.id(start + 1 + 2 * idSize + 4);
+        long position = start + 1 + 7 * idSize + 8;
+
+        int constants = file.u2(position);
+        position += 2;
+        for (int i = 0; i < constants; i++) {
+            position += 3 + file.sizeOf(file.u1(position + 2));
+        }
+
+        int    statics       = file.u2(position);
+        long[] staticNameIds = new long[statics];
+        int[]  staticTypes   = new int[statics];
+        long[] staticValues  = new long[statics];
+        position += 2;
+        for (int i = 0; i < statics; i++) {
+            staticNameIds[i] = file.id(position);
+            staticTypes[i]   = file.u1(position + idSize);
+            staticValues[i]  = file.value(
+                    position + idSize + 1,
+                    staticTypes[i]
+            );
+            position += idSize + 1 + file.sizeOf(staticTypes[i]);
+        }
+
+        int    fields       = file.u2(position);
+        long[] fieldNameIds = new long[fields];
+        int[]  fieldTypes   = new int[fields];
+        position += 2;
+        for (int i = 0; i < fields; i++) {
+            fieldNameIds[i] = file.id(position);
+            fieldTypes[i]   = file.u1(position + idSize);
+            position += idSize + 1;
+        }
+
+        if (register) {
+            classes.put(
+                    classId,
+                    new DumpClass(
+                            classId,
+                            superId,
+                            loaderId,
+                            staticNameIds,
+                            staticTypes,
+                            staticValues,
+                            fieldNameIds,
+                            fieldTypes
+                    )
+            );
+        }
+        return position;
+    }
+
+    /**
+     * Get classes defined by non-bootstrap class loaders of dumped JVM, which
+     * are available in class loader of heap dump.
+     *
+     * @return the list of classes
+     */
+    public synchronized List<Class<?>> getClasses() {
+        List<Class<?>> result = new ArrayList<>();
+        for (DumpClass dumpClass : classes.values()) {
+            if (dumpClass.loaderId != 0 && !dumpClass.name.startsWith("[")) {
+                Class<?> type = typeOf(dumpClass);
+                if (type != null) {
+                    result.add(type);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get number of objects in heap dump.
+     *
+     * @return the number of objects
+     */
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * Allow running static initializers of application classes when their
+     * instances are rebuilt. Disabled by default, as initializers of offline
+     * JVM may have side effects.
+     *
+     * @param initializeClasses {@code true} to initialize classes
+     */
+    public void setInitializeClasses(boolean initializeClasses) {
+        this.initializeClasses = initializeClasses;
+    }
+
+    /**
+     * Set native byte order of dumped JVM, used to decode strings rebuilt
+     * afterwards. Defaults to byte order of current JVM.
+     *
+     * @param byteOrder the byte order
+     */
+    public void setByteOrder(ByteOrder byteOrder) {
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * Get names of classes which instances were not rebuilt, as that would
+     * initialize them.
+     *
+     * @return the class names
+     */
+    public synchronized Set<String> getUninitializedClasses() {
+        return new TreeSet<>(uninitializedClasses);
+    }
+
+    /**
+     * Drop rebuilt objects. Objects rebuilt afterwards are new instances.
+     */
+    public synchronized void releaseObjects() {
+        rebuilt.clear();
+        pending.clear();
+    }
+
+    /**
+     * Get dumped value of static field. Value is rebuilt as with {@link
+     * HeapDump#fill(Object)}.
+     *
+     * @param field the static field
+     *
+     * @return the value, or {@code null} if field is not found in heap dump
+     */
+    @Nullable
+    public synchronized Object getStaticValue(Field field) {
+        DumpClass dumpClass = classesByName.get(field.getDeclaringClass().getName());
+        if (dumpClass == null) {
+            return null;
+        }
+        for (int i = 0; i < dumpClass.staticNames.length; i++) {
+            if (dumpClass.staticNames[i].equals(field.getName())
+                && matches(
+                    field.getType(),
+                    dumpClass.staticTypes[i]
+            )) {
+                if (dumpClass.staticTypes[i] == TYPE_OBJECT) {
+                    Object value = resolve(dumpClass.staticValues[i]);
+                    fillObject(value);
+                    return field.getType().isInstance(value) ? value : null;
+                }
+                return box(
+                        dumpClass.staticTypes[i],
+                        dumpClass.staticValues[i]
+                );
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private Object resolve(long id) {
+        if (id == 0) {
+            return null;
+        }
+        Object known = rebuilt.get(id);
+        if (known != null) {
+            return known == SKIPPED ? null : known;
+        }
+        Object    object;
+        DumpClass dumpClass = classes.get(id);
+        if (dumpClass != null) {
+            object = typeOf(dumpClass);
+        } else {
+            long position = objects.get(id);
+            object = position == LongIndex.NONE ? null : allocate(position);
+        }
+        rebuilt.put(
+                id,
+                object == null ? SKIPPED : object
+        );
+        return object;
+    }
+
+    @Nullable
+    private Object allocate(long position) {
+        long header = position + 1 + idSize + 4;
+        switch (file.u1(position)) {
+            case INSTANCE_DUMP: {
+                DumpClass dumpClass = classes.get(file.id(header));
+                Class<?>  type      = dumpClass == null ? null : typeOf(dumpClass);
+                if (type == null || dumpClass.failed || isSkipped(type)) {
+                    return null;
+                }
+                if (!initializeClasses && !isInitialized(type)) {
+                    // Allocation would run static initializer of class
+                    uninitializedClasses.add(type.getName());
+                    return null;
+                }
+                long data = header + idSize + 4;
+                if (type == String.class) {
+                    return readString(
+                            dumpClass,
+                            data
+                    );
+                }
+                if (Enum.class.isAssignableFrom(type)) {
+                    Object constant = readEnumConstant(
+                            type,
+                            dumpClass,
+                            data
+                    );
+                    if (constant != null) {
+                        return constant;
+                    }
+                }
+                try {
+                    Object instance = UNSAFE.allocateInstance(type);
+                    pending.put(
+                            instance,
+                            new Pending(
+                                    dumpClass,
+                                    data
+                            )
+                    );
+                    return instance;
+                } catch (Throwable e) {
+                    // Class cannot be initialized outside of dumped JVM
+                    dumpClass.failed = true;
+                    return null;
+                }
+            }
+            case OBJECT_ARRAY_DUMP: {
+                int       length    = file.u4(header);
+                DumpClass dumpClass = classes.get(file.id(header + 4));
+                Class<?>  type      = dumpClass == null ? null : typeOf(dumpClass);
+                if (type == null || !type.isArray() || type.getComponentType().isPrimitive()) {
+                    return null;
+                }
+                Object array = Array.newInstance(
+                        type.getComponentType(),
+                        length
+                );
+                pending.put(
+                        array,
+                        new Pending(
+                                null,
+                                header + 4 + idSize
+                        )
+                );
+                return array;
+            }
+            case PRIMITIVE_ARRAY_DUMP:
+                return readPrimitiveArray(
+                        file.u1(header + 4),
+                        file.u4(header),
+                        header + 5
+                );
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Set fields of rebuilt object, unless they are set already. Fields of
+     * referenced JDK objects and arrays are set as well, referenced
+     * application objects are left empty until they are filled.
+     *
+     * @param object the object
+     */
+    public synchronized void fill(@Nullable Object object) {
+        fillObject(object);
+    }
+
+    private void fillObject(@Nullable Object object) {
+        Deque<Object> queue = new ArrayDeque<>();
+        if (object != null) {
+            queue.add(object);
+        }
+        Object next = queue.poll();
+        while (next != null) {
+            Pending filled = pending.remove(next);
+            if (filled != null && filled.dumpClass == null) {
+                Object[] array = (Object[]) next;
+                for (int i = 0; i < array.length; i++) {
+                    Object value = resolve(file.id(filled.data + (long) i * idSize));
+                    if (array.getClass().getComponentType().isInstance(value)) {
+                        array[i] = value;
+                        queueContents(
+                                queue,
+                                value
+                        );
+                    }
+                }
+            } else if (filled != null) {
+                for (Slot slot : slotsOf(filled.dumpClass)) {
+                    if (slot.offset != -1) {
+                        queueContents(
+                                queue,
+                                setField(
+                                        next,
+                                        slot,
+                                        file.value(
+                                                filled.data + slot.position,
+                                                slot.type
+                                        )
+                                )
+                        );
+                    }
+                }
+            }
+            next = queue.poll();
+        }
+    }
+
+    private void queueContents(Deque<Object> queue, @Nullable Object value) {
+        if (value != null
+            && (value.getClass().isArray() || value.getClass().getClassLoader() == null)
+            && pending.containsKey(value)) {
+            queue.add(value);
+        }
+    }
+
+    @Nullable
+    private Object setField(Object instance, Slot slot, long value) {
+        switch (slot.type) {
+            case TYPE_OBJECT:
+                Object object = resolve(value);
+                if (slot.fieldType.isInstance(object)) {
+                    UNSAFE.putObject(
+                            instance,
+                            slot.offset,
+                            object
+                    );
+                    return object;
+                }
+                break;
+            case TYPE_BOOLEAN:
+                UNSAFE.putBoolean(
+                        instance,
+                        slot.offset,
+                        value != 0
+                );
+                break;
+            case TYPE_CHAR:
+                UNSAFE.putChar(
+                        instance,
+                        slot.offset,
+                        (char) value
+                );
+                break;
+            case TYPE_FLOAT:
+                UNSAFE.putFloat(
+                        instance,
+                        slot.offset,
+                        Float.intBitsToFloat((int) value)
+                );
+                break;
+            case TYPE_DOUBLE:
+                UNSAFE.putDouble(
+                        instance,
+                        slot.offset,
+                        Double.longBitsToDouble(value)
+                );
+                break;
+            case TYPE_BYTE:
+                UNSAFE.putByte(
+                        instance,
+                        slot.offset,
+                        (byte) value
+                );
+                break;
+            case TYPE_SHORT:
+                UNSAFE.putShort(
+                        instance,
+                        slot.offset,
+                        (short) value
+                );
+                break;
+            case TYPE_INT:
+                UNSAFE.putInt(
+                        instance,
+                        slot.offset,
+                        (int) value
+                );
+                break;
+            case TYPE_LONG:
+                UNSAFE.putLong(
+                        instance,
+                        slot.offset,
+                        value
+                );
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    private String readString(DumpClass dumpClass, long data) {
+        long valueId = 0;
+        long coder   = 0;
+        for (Slot slot : slotsOf(dumpClass)) {
+            if ("value".equals(slot.name) && slot.type == TYPE_OBJECT) {
+                valueId = file.id(data + slot.position);
+            } else if ("coder".equals(slot.name) && slot.type == TYPE_BYTE) {
+                coder = file.value(
+                        data + slot.position,
+                        TYPE_BYTE
+                );
+            }
+        }
+        long position = valueId == 0 ? LongIndex.NONE : objects.get(valueId);
+        if (position == LongIndex.NONE || file.u1(position) != PRIMITIVE_ARRAY_DUMP) {
+            return "";
+        }
+        long header = position + 1 + idSize + 4;
+        int  length = file.u4(header);
+        if (file.u1(header + 4) == TYPE_CHAR) {
+            return new String((char[]) readPrimitiveArray(
+                    TYPE_CHAR,
+                    length,
+                    header + 5
+            ));
+        }
+        byte[] bytes = new byte[length];
+        file.read(
+                header + 5,
+                bytes
+        );
+        // UTF-16 strings are stored in native byte order of dumped JVM
+        return new String(
+                bytes,
+                coder == 0
+                ? StandardCharsets.ISO_8859_1
+                : byteOrder == ByteOrder.LITTLE_ENDIAN
+                  ? StandardCharsets.UTF_16LE
+                  : StandardCharsets.UTF_16BE
+        );
+    }
+
+    @Nullable
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnumConstant(Class<?> type, DumpClass dumpClass, long data) {
+        Class<?> enumClass = type.isEnum() ? type : type.getSuperclass();
+        for (Slot slot : slotsOf(dumpClass)) {
+            if ("name".equals(slot.name) && slot.type == TYPE_OBJECT) {
+                Object name = resolve(file.id(data + slot.position));
+                try {
+                    return name instanceof String
+                           ? Enum.valueOf(
+                            (Class) enumClass,
+                            (String) name
+                    )
+                           : null;
+                } catch (Throwable e) {
+                    // Constant is missing in application classes
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Object readPrimitiveArray(int type, int length, long data) {
+        switch (type) {
+            case TYPE_BOOLEAN: {
+                boolean[] array = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = file.u1(data + i) != 0;
+                }
+                return array;
+            }
+            case TYPE_BYTE: {
+                byte[] array = new byte[length];
+                file.read(
+                        data,
+                        array
+                );
+                return array;
+            }
+            case TYPE_CHAR: {
+                char[] array = new char[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = (char) file.u2(data + 2L * i);
+                }
+                return array;
+            }
+            case TYPE_SHORT: {
+                short[] array = new short[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = (short) file.u2(data + 2L * i);
+                }
+                return array;
+            }
+            case TYPE_INT: {
+                int[] array = new int[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = file.u4(data + 4L * i);
+                }
+                return array;
+            }
+            case TYPE_FLOAT: {
+                float[] array = new float[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = Float.intBitsToFloat(file.u4(data + 4L * i));
+                }
+                return array;
+            }
+            case TYPE_LONG: {
+                long[] array = new long[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = file.u8(data + 8L * i);
+                }
+                return array;
+            }
+            case TYPE_DOUBLE: {
+                double[] array = new double[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = Double.longBitsToDouble(file.u8(data + 8L * i));
+                }
+                return array;
+            }
+            default:
+                throw new IllegalStateException("Unknown array type "
+                                                + type
+                                                + " in "
+                                                + file);
+        }
+    }
+
+    @Nullable
+    private Class<?> typeOf(DumpClass dumpClass) {
+        if (!dumpClass.resolved) {
+            dumpClass.resolved = true;
+            try {
+                dumpClass.type = Class.forName(
+                        dumpClass.name,
+                        false,
+                        classLoader
+                );
+            } catch (Throwable e) {
+                // Class is generated at runtime or missing in class path
+            }
+        }
+        return dumpClass.type;
+    }
+
+    private Slot[] slotsOf(DumpClass dumpClass) {
+        if (dumpClass.slots == null) {
+            List<Slot> slots    = new ArrayList<>();
+            int        position = 0;
+            for (DumpClass current = dumpClass; current != null; current = classes.get(current.superId)) {
+                Map<String, Field> declaredFields = new HashMap<>();
+                Class<?>           type           = typeOf(current);
+                if (type != null) {
+                    for (Field field : Unreflection.getDeclaredFields(type)) {
+                        if (!Modifier.isStatic(field.getModifiers())) {
+                            declaredFields.put(
+                                    field.getName(),
+                                    field
+                            );
+                        }
+                    }
+                }
+                for (int i = 0; i < current.fieldNames.length; i++) {
+                    Field field = declaredFields.get(current.fieldNames[i]);
+                    slots.add(new Slot(
+                            current.fieldNames[i],
+                            current.fieldTypes[i],
+                            position,
+                            field != null && matches(
+                                    field.getType(),
+                                    current.fieldTypes[i]
+                            ) ? field : null
+                    ));
+                    position += file.sizeOf(current.fieldTypes[i]);
+                }
+            }
+            dumpClass.slots = slots.toArray(new Slot[0]);
+        }
+        return dumpClass.slots;
+    }
+
+    @SuppressWarnings("removal")
+    static boolean isInitialized(Class<?> type) {
+        try {
+            return !UNSAFE.shouldBeInitialized(type);
+        } catch (LinkageError e) {
+            // Not supported by runtime, assume class is not initialized
+            return false;
+        }
+    }
+
+    private static boolean isSkipped(Class<?> type) {
+        String name = type.getName();
+        return ClassLoader.class.isAssignableFrom(type)
+               || Thread.class.isAssignableFrom(type)
+               || name.startsWith("java.lang.reflect.")
+               || name.startsWith("java.lang.invoke.");
+    }
+
+    private static boolean matches(Class<?> fieldType, int type) {
+        switch (type) {
+            case TYPE_OBJECT:
+                return !fieldType.isPrimitive();
+            case TYPE_BOOLEAN:
+                return fieldType == boolean.class;
+            case TYPE_CHAR:
+                return fieldType == char.class;
+            case TYPE_FLOAT:
+                return fieldType == float.class;
+            case TYPE_DOUBLE:
+                return fieldType == double.class;
+            case TYPE_BYTE:
+                return fieldType == byte.class;
+            case TYPE_SHORT:
+                return fieldType == short.class;
+            case TYPE_INT:
+                return fieldType == int.class;
+            case TYPE_LONG:
+                return fieldType == long.class;
+            default:
+                return false;
+        }
+    }
+
+    private static Object box(int type, long value) {
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return value != 0;
+            case TYPE_CHAR:
+                return (char) value;
+            case TYPE_FLOAT:
+                return Float.intBitsToFloat((int) value);
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(value);
+            case TYPE_BYTE:
+                return (byte) value;
+            case TYPE_SHORT:
+                return (short) value;
+            case TYPE_INT:
+                return (int) value;
+            default:
+                return value;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        objects.close();
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return file + " (" + classes.size() + " classes, " + objectCount + " objects)";
+    }
+
+    private static final class DumpClass {
+
+        private final long id;
+
+        private final long[] fieldNameIds;
+
+        private final int[] fieldTypes;
+
+        private final long loaderId;
+
+        private final long[] staticNameIds;
+
+        private final int[] staticTypes;
+
+        private final long[] staticValues;
+
+        private final long superId;
+
+        private boolean failed;
+
+        private String[] fieldNames;
+
+        private String name;
+
+        private boolean resolved;
+
+        @Nullable
+        private Slot[] slots;
+
+        private String[] staticNames;
+
+        @Nullable
+        private Class<?> type;
+
+        private DumpClass(long id,
+                          long superId,
+                          long loaderId,
+                          long[] staticNameIds,
+                          int[] staticTypes,
+                          long[] staticValues,
+                          long[] fieldNameIds,
+                          int[] fieldTypes) {
+            this.id            = id;
+            this.superId       = superId;
+            this.loaderId      = loaderId;
+            this.staticNameIds = staticNameIds;
+            this.staticTypes   = staticTypes;
+            this.staticValues  = staticValues;
+            this.fieldNameIds  = fieldNameIds;
+            this.fieldTypes    = fieldTypes;
+        }
+
+    }
+
+    /**
+     * Instance field of dumped class, with its position in instance data.
+     */
+    private static final class Slot {
+
+        @Nullable
+        private final Class<?> fieldType;
+
+        private final String name;
+
+        private final long offset;
+
+        private final int position;
+
+        private final int type;
+
+        private Slot(String name, int type, int position, @Nullable Field field) {
+            this.name      = name;
+            this.type      = type;
+            this.position  = position;
+            this.fieldType = field == null ? null : field.getType();
+            this.offset    = field == null ? -1 : offsetOf(field);
+        }
+
+        private static long offsetOf(Field field) {
+            try {
+                return UNSAFE.objectFieldOffset(field);
+            } catch (Throwable e) {
+                return -1;
+            }
+        }
+
+    }
+
+    /**
+     * Dumped data of allocated object which fields or items are not set yet.
+     */
+    private static final class Pending {
+
+        private final long data;
+
+        @Nullable
+        private final DumpClass dumpClass;
+
+        private Pending(@Nullable DumpClass dumpClass, long data) {
+            this.dumpClass = dumpClass;
+            this.data      = data;
+        }
+
+    }
+
+    /**
+     * Open-addressing map of object identifiers to rebuilt objects.
+     */
+    private static final class ObjectTable {
+
+        private long[] keys = new long[1024];
+
+        private int size;
+
+        private Object[] values = new Object[1024];
+
+        @Nullable
+        private Object get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = slotOf(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return null;
+        }
+
+        private void put(long key, Object value) {
+            if (2 * (size + 1) > keys.length) {
+                long[]   oldKeys   = keys;
+                Object[] oldValues = values;
+                keys   = new long[oldKeys.length * 2];
+                values = new Object[oldKeys.length * 2];
+                size   = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != 0) {
+                        put(
+                                oldKeys[i],
+                                oldValues[i]
+                        );
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int slot = slotOf(key, mask);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                size++;
+            }
+            keys[slot]   = key;
+            values[slot] = value;
+        }
+
+        private void clear() {
+            keys   = new long[1024];
+            values = new Object[1024];
+            size   = 0;
+        }
+
+        private static int slotOf(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+    }
+
+}
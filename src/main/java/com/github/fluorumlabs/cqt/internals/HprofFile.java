@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of HPROF heap dump file. File is memory-mapped in segments,
+ * so that dumps of any size can be read without loading them to heap.
+ * Values are big-endian, as written by HotSpot.
+ */
+final class HprofFile implements Closeable {
+
+    static final int TAG_UTF8 = 0x01;
+
+    static final int TAG_LOAD_CLASS = 0x02;
+
+    static final int TAG_HEAP_DUMP = 0x0C;
+
+    static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+    static final int ROOT_UNKNOWN = 0xFF;
+
+    static final int ROOT_JNI_GLOBAL = 0x01;
+
+    static final int ROOT_JNI_LOCAL = 0x02;
+
+    static final int ROOT_JAVA_FRAME = 0x03;
+
+    static final int ROOT_NATIVE_STACK = 0x04;
+
+    static final int ROOT_STICKY_CLASS = 0x05;
+
+    static final int ROOT_THREAD_BLOCK = 0x06;
+
+    static final int ROOT_MONITOR_USED = 0x07;
+
+    static final int ROOT_THREAD_OBJECT = 0x08;
+
+    static final int CLASS_DUMP = 0x20;
+
+    static final int INSTANCE_DUMP = 0x21;
+
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    static final int TYPE_OBJECT = 2;
+
+    static final int TYPE_BOOLEAN = 4;
+
+    static final int TYPE_CHAR = 5;
+
+    static final int TYPE_FLOAT = 6;
+
+    static final int TYPE_DOUBLE = 7;
+
+    static final int TYPE_BYTE = 8;
+
+    static final int TYPE_SHORT = 9;
+
+    static final int TYPE_INT = 10;
+
+    static final int TYPE_LONG = 11;
+
+    private static final int SEGMENT_BITS = 30;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    // Reads of up to 8 bytes never cross segment boundary
+    private static final int SEGMENT_OVERLAP = Long.BYTES;
+
+    private final FileChannel channel;
+
+    private final long firstRecord;
+
+    private final int idSize;
+
+    private final Path path;
+
+    private final MappedByteBuffer[] segments;
+
+    private final long size;
+
+    private HprofFile(Path path) throws IOException {
+        this.path    = path;
+        this.channel = FileChannel.open(
+                path,
+                StandardOpenOption.READ
+        );
+        this.size    = channel.size();
+        segments     = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    start,
+                    Math.min(
+                            size - start,
+                            SEGMENT_MASK + 1 + SEGMENT_OVERLAP
+                    )
+            );
+        }
+
+        long position = 0;
+        while (position < size && u1(position) != 0) {
+            position++;
+        }
+        String format = utf8(
+                0,
+                (int) position
+        );
+        if (!format.startsWith("JAVA PROFILE ")) {
+            throw new IOException(path + " is not a HPROF heap dump");
+        }
+        idSize      = u4(position + 1);
+        firstRecord = position + 1 + Integer.BYTES + Long.BYTES;
+        if (idSize != Integer.BYTES && idSize != Long.BYTES) {
+            throw new IOException("Unsupported identifier size " + idSize + " in " + path);
+        }
+    }
+
+    /**
+     * Open heap dump file.
+     *
+     * @param path the file path
+     *
+     * @return the heap dump file
+     * @throws IOException if file cannot be read or is not a HPROF file
+     */
+    static HprofFile open(Path path) throws IOException {
+        return new HprofFile(path);
+    }
+
+    /**
+     * Get file path.
+     *
+     * @return the path
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Get file size.
+     *
+     * @return the size in bytes
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Get size of object identifiers.
+     *
+     * @return the size in bytes
+     */
+    int idSize() {
+        return idSize;
+    }
+
+    /**
+     * Get position of first record after header.
+     *
+     * @return the position
+     */
+    long firstRecord() {
+        return firstRecord;
+    }
+
+    /**
+     * Read unsigned byte.
+     *
+     * @param position the file position
+     *
+     * @return the value
+     */
+    int u1(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK)) & 0xFF;
+    }
+
+    /**
+     * Read unsigned short.
+     *
+     * @param position the file position
+     *
+     * @return the value
+     */
+    int u2(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getShort((int) (position & SEGMENT_MASK)) & 0xFFFF;
+    }
+
+    /**
+     * Read int.
+     *
+     * @param position the file position
+     *
+     * @return the value
+     */
+    int u4(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Read long.
+     *
+     * @param position the file position
+     *
+     * @return the value
+     */
+    long u8(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Read object identifier.
+     *
+     * @param position the file position
+     *
+     * @return the identifier
+     */
+    long id(long position) {
+        return idSize == Long.BYTES
+               ? u8(position)
+               : u4(position) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Read value of basic type as raw bits.
+     *
+     * @param position the file position
+     * @param type     the basic type
+     *
+     * @return the value, or identifier for objects
+     */
+    long value(long position, int type) {
+        switch (type) {
+            case TYPE_OBJECT:
+                return id(position);
+            case TYPE_BOOLEAN:
+            case TYPE_BYTE:
+                return (byte) u1(position);
+            case TYPE_CHAR:
+                return u2(position);
+            case TYPE_SHORT:
+                return (short) u2(position);
+            case TYPE_FLOAT:
+            case TYPE_INT:
+                return u4(position);
+            case TYPE_DOUBLE:
+            case TYPE_LONG:
+                return u8(position);
+            default:
+                throw new IllegalStateException("Unknown basic type "
+                                                + type
+                                                + " in "
+                                                + path);
+        }
+    }
+
+    /**
+     * Get size of basic type.
+     *
+     * @param type the basic type
+     *
+     * @return the size in bytes
+     */
+    int sizeOf(int type) {
+        switch (type) {
+            case TYPE_OBJECT:
+                return idSize;
+            case TYPE_BOOLEAN:
+            case TYPE_BYTE:
+                return 1;
+            case TYPE_CHAR:
+            case TYPE_SHORT:
+                return 2;
+            case TYPE_FLOAT:
+            case TYPE_INT:
+                return 4;
+            case TYPE_DOUBLE:
+            case TYPE_LONG:
+                return 8;
+            default:
+                throw new IllegalStateException("Unknown basic type "
+                                                + type
+                                                + " in "
+                                                + path);
+        }
+    }
+
+    /**
+     * Read bytes.
+     *
+     * @param position the file position
+     * @param target   the array to fill
+     */
+    void read(long position, byte[] target) {
+        int offset = 0;
+        while (offset < target.length) {
+            ByteBuffer segment = segments[(int) ((position + offset) >>> SEGMENT_BITS)].duplicate();
+            int        start   = (int) ((position + offset) & SEGMENT_MASK);
+            int length = Math.min(
+                    target.length - offset,
+                    (int) (SEGMENT_MASK + 1 - start)
+            );
+            segment.position(start);
+            segment.get(
+                    target,
+                    offset,
+                    length
+            );
+            offset += length;
+        }
+    }
+
+    /**
+     * Read modified UTF-8 string.
+     *
+     * @param position the file position
+     * @param length   the length in bytes
+     *
+     * @return the string
+     */
+    String utf8(long position, int length) {
+        byte[] bytes = new byte[length];
+        read(
+                position,
+                bytes
+        );
+        return new String(
+                bytes,
+                StandardCharsets.UTF_8
+        );
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+}
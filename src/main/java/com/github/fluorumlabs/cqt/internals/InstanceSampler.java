@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selects instances of application classes to be visited when scanning huge
+ * homogeneous populations. Each class is limited to a max number of visited
+ * instances and to a share of instances configured for its package. Classes
+ * of the bootstrap class loader and arrays are always visited, as they are
+ * reached only via their (sampled) owners.
+ * <p>
+ * Counters are kept per scan; {@link InstanceSampler#getWeight(Class)}
+ * tells how many reached instances of class every visited one stands for.
+ */
+final class InstanceSampler {
+
+    private final Map<Class<?>, ClassSample> samples = new ConcurrentHashMap<>();
+
+    private final Map<String, Double> packageRates = new ConcurrentHashMap<>();
+
+    private long maxInstances = Long.MAX_VALUE;
+
+    /**
+     * Test if sampling is configured.
+     *
+     * @return {@code true} if some instances may be skipped
+     */
+    boolean isEnabled() {
+        return maxInstances != Long.MAX_VALUE || !packageRates.isEmpty();
+    }
+
+    /**
+     * Set max number of visited instances per class.
+     *
+     * @param maxInstances the max number of instances
+     */
+    void setMaxInstances(long maxInstances) {
+        this.maxInstances = maxInstances;
+    }
+
+    /**
+     * Set share of visited instances for classes of package and its
+     * subpackages. The most specific package wins.
+     *
+     * @param packageName the package name
+     * @param rate        the share of instances, from {@code 0} (exclusive)
+     *                    to {@code 1}
+     */
+    void setRate(String packageName, double rate) {
+        packageRates.put(
+                packageName,
+                rate
+        );
+    }
+
+    /**
+     * Register instance of class and decide whether it should be visited.
+     * Must be called once per instance.
+     *
+     * @param type the instance class
+     *
+     * @return {@code true} if instance should be visited
+     */
+    boolean sample(Class<?> type) {
+        if (type.isArray() || type.getClassLoader() == null) {
+            return true;
+        }
+        return samples
+                .computeIfAbsent(
+                        type,
+                        this::newSample
+                )
+                .sample();
+    }
+
+    /**
+     * Get number of instances of class represented by every visited one.
+     *
+     * @param type the instance class
+     *
+     * @return the weight, {@code 1} if no instances were skipped
+     */
+    double getWeight(Class<?> type) {
+        ClassSample sample = samples.get(type);
+        return sample == null ? 1 : sample.getWeight();
+    }
+
+    /**
+     * Forget counters of previous scan.
+     */
+    void reset() {
+        samples.clear();
+    }
+
+    private ClassSample newSample(Class<?> type) {
+        String name     = type.getName();
+        String bestName = "";
+        double rate     = 1;
+        for (Map.Entry<String, Double> entry : packageRates.entrySet()) {
+            String packageName = entry.getKey();
+            if (name.startsWith(packageName + ".")
+                && packageName.length() > bestName.length()) {
+                bestName = packageName;
+                rate     = entry.getValue();
+            }
+        }
+        return new ClassSample(
+                rate,
+                maxInstances
+        );
+    }
+
+    private static final class ClassSample {
+
+        private final long maxInstances;
+
+        private final double rate;
+
+        private final AtomicLong seen = new AtomicLong();
+
+        private final AtomicLong visited = new AtomicLong();
+
+        private ClassSample(double rate, long maxInstances) {
+            this.rate         = rate;
+            this.maxInstances = maxInstances;
+        }
+
+        private boolean sample() {
+            long index = seen.getAndIncrement();
+            // Pick evenly spaced instances, e.g. every 10th one for 0.1
+            if (index > 0 && (long) (index * rate) == (long) ((index - 1) * rate)) {
+                return false;
+            }
+            return visited.getAndUpdate(v -> v < maxInstances ? v + 1 : v) < maxInstances;
+        }
+
+        private double getWeight() {
+            long visitedCount = visited.get();
+            return visitedCount == 0 ? 1 : (double) seen.get() / visitedCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints.
+ */
+final class IntList {
+
+    private int[] values;
+
+    private int size;
+
+    /**
+     * Instantiates a new empty list.
+     */
+    IntList() {
+        this.values = new int[16];
+    }
+
+    /**
+     * Append value.
+     *
+     * @param value the value
+     */
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(
+                    values,
+                    size * 2
+            );
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Get value at index.
+     *
+     * @param index the index
+     *
+     * @return the value
+     */
+    int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Get number of values.
+     *
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Remove all values, keeping allocated capacity.
+     */
+    void clear() {
+        size = 0;
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints, which can be moved from heap to a
+ * memory-mapped temporary file.
+ */
+final class IntStore implements Closeable {
+
+    private static final int[] EMPTY = new int[0];
+
+    private static final int MAX_MAPPED_CAPACITY = Integer.MAX_VALUE / Integer.BYTES;
+
+    private int capacity;
+
+    @Nullable
+    private FileChannel channel;
+
+    private int[] heap = EMPTY;
+
+    @Nullable
+    private IntBuffer mapped;
+
+    /**
+     * Get value at index.
+     *
+     * @param index the index
+     *
+     * @return the value
+     */
+    int get(int index) {
+        return mapped == null ? heap[index] : mapped.get(index);
+    }
+
+    /**
+     * Set value at index.
+     *
+     * @param index the index
+     * @param value the value
+     */
+    void set(int index, int value) {
+        if (mapped == null) {
+            heap[index] = value;
+        } else {
+            mapped.put(
+                    index,
+                    value
+            );
+        }
+    }
+
+    /**
+     * Grow store to hold at least specified number of values.
+     *
+     * @param required the required capacity
+     */
+    void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(
+                required,
+                capacity + (capacity >> 1)
+        );
+        if (mapped == null) {
+            heap = Arrays.copyOf(
+                    heap,
+                    newCapacity
+            );
+        } else {
+            map(newCapacity);
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Test if values are stored in memory-mapped file.
+     *
+     * @return {@code true} if store was spilled
+     */
+    boolean isSpilled() {
+        return mapped != null;
+    }
+
+    /**
+     * Get number of heap bytes used by values.
+     *
+     * @return the number of bytes
+     */
+    long heapBytes() {
+        return (long) heap.length * Integer.BYTES;
+    }
+
+    /**
+     * Move values to a memory-mapped temporary file. All further growth
+     * happens in the file.
+     */
+    void spill() {
+        if (mapped != null) {
+            return;
+        }
+        try {
+            channel = FileChannel.open(
+                    Files.createTempFile(
+                            "cqt-graph",
+                            ".bin"
+                    ),
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Cannot create scanner spill file",
+                    e
+            );
+        }
+        map(capacity);
+        mapped.put(
+                heap,
+                0,
+                capacity
+        );
+        heap = EMPTY;
+    }
+
+    private void map(int newCapacity) {
+        if (newCapacity > MAX_MAPPED_CAPACITY) {
+            throw new IllegalStateException("Spilled store cannot hold more than "
+                                            + MAX_MAPPED_CAPACITY
+                                            + " values");
+        }
+        try {
+            mapped = channel
+                    .map(
+                            FileChannel.MapMode.READ_WRITE,
+                            0,
+                            Math.max(
+                                    newCapacity,
+                                    1
+                            ) * (long) Integer.BYTES
+                    )
+                    .order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Cannot map scanner spill file",
+                    e
+            );
+        }
+    }
+
+    /**
+     * Release values and delete spill file, if any.
+     */
+    @Override
+    public void close() {
+        heap     = EMPTY;
+        mapped   = null;
+        capacity = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+
+}
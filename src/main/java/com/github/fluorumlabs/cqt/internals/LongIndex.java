@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed-size open-addressing map of non-zero long keys to long values, kept
+ * in a memory-mapped temporary file.
+ */
+final class LongIndex implements Closeable {
+
+    static final long NONE = -1;
+
+    // Slots of key and value per mapped segment
+    private static final int SEGMENT_BITS = 26;
+
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    private final FileChannel channel;
+
+    private final long mask;
+
+    private final LongBuffer[] segments;
+
+    /**
+     * Instantiates a new index.
+     *
+     * @param expectedSize the max number of keys
+     */
+    LongIndex(long expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(
+                expectedSize,
+                8
+        ) * 2 - 1) << 1;
+        mask = capacity - 1;
+        try {
+            channel  = FileChannel.open(
+                    Files.createTempFile(
+                            "cqt-index",
+                            ".bin"
+                    ),
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE
+            );
+            segments = new LongBuffer[(int) ((capacity + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long slots = Math.min(
+                        capacity - ((long) i << SEGMENT_BITS),
+                        SEGMENT_MASK + 1
+                );
+                segments[i] = channel
+                        .map(
+                                FileChannel.MapMode.READ_WRITE,
+                                ((long) i << SEGMENT_BITS) * 2 * Long.BYTES,
+                                slots * 2 * Long.BYTES
+                        )
+                        .order(ByteOrder.nativeOrder())
+                        .asLongBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Cannot create heap dump index file",
+                    e
+            );
+        }
+    }
+
+    /**
+     * Put value of key. Index must not be full.
+     *
+     * @param key   the non-zero key
+     * @param value the value
+     */
+    void put(long key, long value) {
+        for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            LongBuffer segment = segments[(int) (slot >>> SEGMENT_BITS)];
+            int        index   = ((int) slot & SEGMENT_MASK) * 2;
+            long       current = segment.get(index);
+            if (current == 0 || current == key) {
+                segment.put(
+                        index,
+                        key
+                );
+                segment.put(
+                        index + 1,
+                        value
+                );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get value of key.
+     *
+     * @param key the non-zero key
+     *
+     * @return the value, or {@link #NONE} if key is absent
+     */
+    long get(long key) {
+        for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            LongBuffer segment = segments[(int) (slot >>> SEGMENT_BITS)];
+            int        index   = ((int) slot & SEGMENT_MASK) * 2;
+            long       current = segment.get(index);
+            if (current == key) {
+                return segment.get(index + 1);
+            } else if (current == 0) {
+                return NONE;
+            }
+        }
+    }
+
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+}
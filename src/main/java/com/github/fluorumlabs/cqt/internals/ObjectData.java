@@ -28,35 +28,24 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Object data associated with a particulat object instance.
+ * Object data associated with a particulat object instance. This is a view of
+ * a visited node of {@link ObjectGraph}.
  */
 public class ObjectData {
 
-    private final List<ObjectValue> objectValues;
+    private final ObjectGraph graph;
 
-    @Nullable
-    private final String scope;
-
-    @Nullable
-    private String inheritedScope;
+    private final int node;
 
     /**
      * Instantiates a new object data.
      *
-     * @param scope the scope
-     */
-    ObjectData(@Nullable String scope) {
-        this.scope        = scope;
-        this.objectValues = new ArrayList<>();
-    }
-
-    /**
-     * Add value associated with this object (see {@link ObjectValue}.
-     *
-     * @param objectValue the related object value
+     * @param graph the graph
+     * @param node  the node id
      */
-    public void addValue(ObjectValue objectValue) {
-        objectValues.add(objectValue);
+    ObjectData(ObjectGraph graph, int node) {
+        this.graph = graph;
+        this.node  = node;
     }
 
     /**
@@ -65,7 +54,7 @@ public class ObjectData {
      * @return {@code true} if owner has own scope.
      */
     public boolean hasOwnScope() {
-        return scope != null;
+        return graph.ownScope(node) != null;
     }
 
     /**
@@ -74,7 +63,10 @@ public class ObjectData {
      * @param scope the scope
      */
     public void setInheritedScope(@Nullable String scope) {
-        this.inheritedScope = scope;
+        graph.setInheritedScope(
+                node,
+                scope
+        );
     }
 
     /**
@@ -83,7 +75,9 @@ public class ObjectData {
      * @return the scope
      */
     public String getEffectiveScope() {
+        String scope = graph.ownScope(node);
         if (scope == null) {
+            String inheritedScope = graph.inheritedScope(node);
             if (inheritedScope == null) {
                 return "instance";
             } else {
@@ -100,7 +94,9 @@ public class ObjectData {
      * @return the printable scope
      */
     public String getPrintableScope() {
+        String scope = graph.ownScope(node);
         if (scope == null) {
+            String inheritedScope = graph.inheritedScope(node);
             if (inheritedScope == null) {
                 return "instance";
             } else {
@@ -119,7 +115,12 @@ public class ObjectData {
      * @return the values
      */
     public List<ObjectValue> getValues() {
-        return objectValues;
+        int               end    = graph.forwardEnd(node);
+        List<ObjectValue> values = new ArrayList<>(end - graph.forwardStart(node));
+        for (int position = graph.forwardStart(node); position < end; position++) {
+            values.add(graph.value(graph.forwardEdge(position)));
+        }
+        return values;
     }
 
 }
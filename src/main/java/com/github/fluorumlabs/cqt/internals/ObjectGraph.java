@@ -0,0 +1,1308 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import com.github.fluorumlabs.cqt.data.ReferenceType;
+
+import javax.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Compact object graph built by {@link Scanner}.
+ * <p>
+ * Every object seen during traversal gets a dense int node id. Edges (see
+ * {@link ObjectValue}) are stored in primitive arrays with interned {@link
+ * Field} ids and packed {@link ReferenceType}, and are indexed with CSR-style
+ * forward (owner {@literal ->} values) and reverse (value {@literal ->}
+ * owners) adjacency arrays.
+ * <p>
+ * Traversal threads append to their own {@link Writer}. Writers are flushed
+ * to the graph in batches; indexes are rebuilt by {@link
+ * ObjectGraph#freeze()}, and all read methods reflect the state as of the
+ * last freeze.
+ * <p>
+ * When graph grows over the budget set with {@link
+ * ObjectGraph#setBudget(int, long)}, edges and indexes are moved to
+ * memory-mapped temporary files (see {@link IntStore}). Nodes and the
+ * identity table always stay on heap, as they hold object references.
+ * <p>
+ * Visited nodes carry a fingerprint of their outgoing references. When
+ * fingerprint of an object did not change since the previous scan, its edges
+ * can be copied from the previous graph with {@link Writer#reuse(ObjectGraph,
+ * int, int, Consumer)} instead of being collected again.
+ * <p>
+ * Once analysis is complete, graph can be kept with {@link
+ * ObjectGraph#weaken(Predicate)}, which replaces strong references to
+ * objects with weak ones. Collected objects are simply missing from the
+ * graph afterwards.
+ */
+final class ObjectGraph {
+
+    /**
+     * Node id of {@code null} or unknown object; also returned by {@link
+     * Writer#visit(Object, String, long)} for objects that are already
+     * visited.
+     */
+    static final int NONE = -1;
+
+    /**
+     * Fingerprint of objects that must always be revisited.
+     */
+    static final long NO_FINGERPRINT = 0;
+
+    private static final byte BACKREFERENCED = 0x40;
+
+    private static final byte CASCADED = 0x20;
+
+    private static final byte TYPE_MASK = 0x1F;
+
+    private static final int LABEL_BITS = 8;
+
+    private static final int FLUSH_THRESHOLD = 16384;
+
+    /*
+     * Estimated heap bytes per node: object reference, identity table slot
+     * and per-node arrays.
+     */
+    private static final int NODE_BYTES = 48;
+
+    private static final int NOT_VISITED = -1;
+
+    private static final ReferenceType[] REFERENCE_TYPES = ReferenceType.values();
+
+    private static final int STRIPES = 64;
+
+    private final Map<Field, Integer> fieldIds = new ConcurrentHashMap<>();
+
+    private final List<Field> fields = new ArrayList<>();
+
+    private final IntStore edgeLabels = new IntStore();
+
+    private final IntStore edgeSources = new IntStore();
+
+    private final IntStore edgeTargets = new IntStore();
+
+    private final IntStore extraEdges = new IntStore();
+
+    private final IntStore extraOwners = new IntStore();
+
+    private final IntStore extraTargets = new IntStore();
+
+    private final IntStore forwardEdges = new IntStore();
+
+    private final AtomicInteger nodeCounter = new AtomicInteger();
+
+    private final IntStore reverseEdges = new IntStore();
+
+    private final IntStore reverseOwners = new IntStore();
+
+    private final Map<String, Integer> scopeIds = new ConcurrentHashMap<>();
+
+    private final List<String> scopes = new ArrayList<>();
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final AtomicInteger visitedCounter = new AtomicInteger();
+
+    private final Map<Thread, Writer> writers = new ConcurrentHashMap<>();
+
+    private int edgeCount;
+
+    private int extraCount;
+
+    private long[] fingerprints = new long[0];
+
+    private int[] forwardOffsets = {0};
+
+    private int[] inheritedScopes = new int[0];
+
+    private long maxBytes = Long.MAX_VALUE;
+
+    private int maxObjects = Integer.MAX_VALUE;
+
+    private int nodeCount;
+
+    private Object[] nodes = new Object[0];
+
+    private int[] ownScopes = new int[0];
+
+    private int[] previousNodes = new int[0];
+
+    private int[] reverseOffsets = {0};
+
+    private volatile boolean spilled;
+
+    /**
+     * Instantiates a new empty graph.
+     */
+    ObjectGraph() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        scopes.add(null);
+    }
+
+    private static int mix(Object object) {
+        return System.identityHashCode(object) * 0x9E3779B9;
+    }
+
+    private Stripe stripeFor(int hash) {
+        return stripes[hash >>> 26];
+    }
+
+    /**
+     * Get node id of object.
+     *
+     * @param object the object
+     *
+     * @return the node id or {@link ObjectGraph#NONE} if object is not part
+     *         of the graph
+     */
+    int find(@Nullable Object object) {
+        if (object == null) {
+            return NONE;
+        }
+        int    hash   = mix(object);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            int slot = stripe.slotOf(
+                    object,
+                    hash
+            );
+            return slot < 0 ? NONE : Stripe.idOf(stripe.ids[slot]);
+        }
+    }
+
+    /**
+     * Test if object was visited (i.e. has own values).
+     *
+     * @param object the object
+     *
+     * @return {@code true} if object was visited
+     */
+    boolean isVisited(@Nullable Object object) {
+        if (object == null) {
+            return false;
+        }
+        int    hash   = mix(object);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            int slot = stripe.slotOf(
+                    object,
+                    hash
+            );
+            return slot >= 0 && stripe.ids[slot] < 0;
+        }
+    }
+
+    /**
+     * Get number of visited objects, including ones not merged yet.
+     *
+     * @return the number of visited objects
+     */
+    int visitedCount() {
+        return visitedCounter.get();
+    }
+
+    /**
+     * Get {@link Writer} of current thread.
+     *
+     * @return the writer
+     */
+    Writer writer() {
+        return writers.computeIfAbsent(
+                Thread.currentThread(),
+                t -> new Writer()
+        );
+    }
+
+    /**
+     * Set memory budget of graph. Once budget is exceeded, edges and indexes
+     * are moved to memory-mapped temporary files.
+     *
+     * @param maxObjects the max number of visited objects
+     * @param maxBytes   the max estimated heap size in bytes
+     */
+    void setBudget(int maxObjects, long maxBytes) {
+        this.maxObjects = maxObjects;
+        this.maxBytes   = maxBytes;
+    }
+
+    /**
+     * Test if edges and indexes were moved to memory-mapped files.
+     *
+     * @return {@code true} if graph was spilled
+     */
+    boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Get estimated heap size of graph.
+     *
+     * @return the estimated size in bytes
+     */
+    long estimatedHeapBytes() {
+        long bytes = (long) nodeCounter.get() * NODE_BYTES;
+        for (IntStore store : stores()) {
+            bytes += store.heapBytes();
+        }
+        return bytes;
+    }
+
+    private IntStore[] stores() {
+        return new IntStore[]{
+                edgeSources,
+                edgeTargets,
+                edgeLabels,
+                extraTargets,
+                extraOwners,
+                extraEdges,
+                forwardEdges,
+                reverseOwners,
+                reverseEdges
+        };
+    }
+
+    private void checkBudget() {
+        if (!spilled && (visitedCounter.get() > maxObjects
+                         || estimatedHeapBytes() > maxBytes)) {
+            for (IntStore store : stores()) {
+                store.spill();
+            }
+            spilled = true;
+        }
+    }
+
+    private int fieldId(@Nullable Field field) {
+        if (field == null) {
+            return NONE;
+        }
+        Integer id = fieldIds.get(field);
+        if (id == null) {
+            synchronized (fields) {
+                id = fieldIds.get(field);
+                if (id == null) {
+                    id = fields.size();
+                    fields.add(field);
+                    fieldIds.put(
+                            field,
+                            id
+                    );
+                }
+            }
+        }
+        return id;
+    }
+
+    private int scopeId(@Nullable String scope) {
+        if (scope == null) {
+            return 0;
+        }
+        Integer id = scopeIds.get(scope);
+        if (id == null) {
+            synchronized (scopes) {
+                id = scopeIds.get(scope);
+                if (id == null) {
+                    id = scopes.size();
+                    scopes.add(scope);
+                    scopeIds.put(
+                            scope,
+                            id
+                    );
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Merge data collected by writers and rebuild adjacency indexes. Must not
+     * be called concurrently with traversal.
+     */
+    void freeze() {
+        for (Writer writer : writers.values()) {
+            writer.flush();
+        }
+        writers.clear();
+        nodeCount = nodeCounter.get();
+        ensureNodeCapacity(nodeCount);
+
+        buildForwardIndex();
+        buildReverseIndex();
+        checkBudget();
+    }
+
+    private void ensureNodeCapacity(int required) {
+        if (required > nodes.length) {
+            int capacity = Math.max(
+                    required,
+                    nodes.length + (nodes.length >> 1)
+            );
+            nodes           = Arrays.copyOf(
+                    nodes,
+                    capacity
+            );
+            inheritedScopes = Arrays.copyOf(
+                    inheritedScopes,
+                    capacity
+            );
+            fingerprints    = Arrays.copyOf(
+                    fingerprints,
+                    capacity
+            );
+            int previous = ownScopes.length;
+            ownScopes     = Arrays.copyOf(
+                    ownScopes,
+                    capacity
+            );
+            previousNodes = Arrays.copyOf(
+                    previousNodes,
+                    capacity
+            );
+            Arrays.fill(
+                    ownScopes,
+                    previous,
+                    capacity,
+                    NOT_VISITED
+            );
+            Arrays.fill(
+                    previousNodes,
+                    previous,
+                    capacity,
+                    NONE
+            );
+        }
+    }
+
+    private int firstExtraOf(int edge) {
+        // Extras are appended in edge order
+        int low  = 0;
+        int high = extraCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (extraEdges.get(middle) < edge) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void buildForwardIndex() {
+        int[] offsets = new int[nodeCount + 1];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            offsets[edgeSources.get(edge) + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] cursor = Arrays.copyOf(
+                offsets,
+                nodeCount
+        );
+        forwardEdges.ensureCapacity(edgeCount);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            forwardEdges.set(
+                    cursor[edgeSources.get(edge)]++,
+                    edge
+            );
+        }
+        forwardOffsets = offsets;
+    }
+
+    private void buildReverseIndex() {
+        int[] offsets = new int[nodeCount + 1];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if ((edgeLabels.get(edge) & BACKREFERENCED) != 0) {
+                offsets[edgeTargets.get(edge) + 1]++;
+            }
+        }
+        for (int extra = 0; extra < extraCount; extra++) {
+            offsets[extraTargets.get(extra) + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+        int[] cursor = Arrays.copyOf(
+                offsets,
+                nodeCount
+        );
+        reverseOwners.ensureCapacity(offsets[nodeCount]);
+        reverseEdges.ensureCapacity(offsets[nodeCount]);
+        int extra = 0;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if ((edgeLabels.get(edge) & BACKREFERENCED) != 0) {
+                addReverse(
+                        cursor[edgeTargets.get(edge)]++,
+                        edgeSources.get(edge),
+                        edge
+                );
+            }
+            // Map key backreferences follow the corresponding map value
+            while (extra < extraCount && extraEdges.get(extra) < edge) {
+                addReverse(
+                        cursor[extraTargets.get(extra)]++,
+                        extraOwners.get(extra),
+                        extraEdges.get(extra)
+                );
+                extra++;
+            }
+        }
+        while (extra < extraCount) {
+            addReverse(
+                    cursor[extraTargets.get(extra)]++,
+                    extraOwners.get(extra),
+                    extraEdges.get(extra)
+            );
+            extra++;
+        }
+        reverseOffsets = offsets;
+    }
+
+    private boolean isAlive(int node, int forwardEnd) {
+        for (int position = forwardStart(node); position < forwardEnd; position++) {
+            int edge = forwardEdges.get(position);
+            if (isCollected(edgeTargets.get(edge))) {
+                return false;
+            }
+            for (int extra = firstExtraOf(edge);
+                 extra < extraCount && extraEdges.get(extra) == edge;
+                 extra++) {
+                if (isCollected(extraTargets.get(extra)) || isCollected(extraOwners.get(extra))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isCollected(int node) {
+        return node != NONE && node(node) == null;
+    }
+
+    private void addReverse(int position, int owner, int edge) {
+        reverseOwners.set(
+                position,
+                owner
+        );
+        reverseEdges.set(
+                position,
+                edge
+        );
+    }
+
+    /**
+     * Get number of nodes.
+     *
+     * @return the number of nodes
+     */
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Get object of node.
+     *
+     * @param node the node id
+     *
+     * @return the object
+     */
+    @Nullable
+    Object node(int node) {
+        return node == NONE ? null : WeakNode.get(nodes[node]);
+    }
+
+    /**
+     * Test if node was visited.
+     *
+     * @param node the node id
+     *
+     * @return {@code true} if node was visited
+     */
+    boolean isVisited(int node) {
+        return node != NONE && node < nodeCount && ownScopes[node] != NOT_VISITED;
+    }
+
+    /**
+     * Get own scope of node.
+     *
+     * @param node the node id
+     *
+     * @return the scope or {@code null} if node has no own scope
+     */
+    @Nullable
+    String ownScope(int node) {
+        return ownScopes[node] > 0 ? scopes.get(ownScopes[node]) : null;
+    }
+
+    /**
+     * Get inherited scope of node.
+     *
+     * @param node the node id
+     *
+     * @return the scope or {@code null} if node has not inherited any scope
+     */
+    @Nullable
+    String inheritedScope(int node) {
+        return scopes.get(inheritedScopes[node]);
+    }
+
+    /**
+     * Set inherited scope of node.
+     *
+     * @param node  the node id
+     * @param scope the scope
+     */
+    void setInheritedScope(int node, @Nullable String scope) {
+        inheritedScopes[node] = scopeId(scope);
+    }
+
+    /**
+     * Get position of first outgoing edge of node in forward index.
+     *
+     * @param node the node id
+     *
+     * @return the position
+     * @see ObjectGraph#forwardEdge(int)
+     */
+    int forwardStart(int node) {
+        return node < nodeCount ? forwardOffsets[node] : 0;
+    }
+
+    /**
+     * Get position after last outgoing edge of node in forward index.
+     *
+     * @param node the node id
+     *
+     * @return the position
+     * @see ObjectGraph#forwardEdge(int)
+     */
+    int forwardEnd(int node) {
+        return node < nodeCount ? forwardOffsets[node + 1] : 0;
+    }
+
+    /**
+     * Get edge at position in forward index.
+     *
+     * @param position the position
+     *
+     * @return the edge id
+     */
+    int forwardEdge(int position) {
+        return forwardEdges.get(position);
+    }
+
+    /**
+     * Get position of first backreference of node in reverse index.
+     *
+     * @param node the node id
+     *
+     * @return the position
+     * @see ObjectGraph#reverseEdge(int)
+     * @see ObjectGraph#reverseOwner(int)
+     */
+    int reverseStart(int node) {
+        return node < nodeCount ? reverseOffsets[node] : 0;
+    }
+
+    /**
+     * Get position after last backreference of node in reverse index.
+     *
+     * @param node the node id
+     *
+     * @return the position
+     */
+    int reverseEnd(int node) {
+        return node < nodeCount ? reverseOffsets[node + 1] : 0;
+    }
+
+    /**
+     * Get edge of backreference at position in reverse index.
+     *
+     * @param position the position
+     *
+     * @return the edge id
+     */
+    int reverseEdge(int position) {
+        return reverseEdges.get(position);
+    }
+
+    /**
+     * Get owner node of backreference at position in reverse index. This is
+     * the source of the edge, except for map values, which are also
+     * referenced by their keys.
+     *
+     * @param position the position
+     *
+     * @return the owner node id
+     */
+    int reverseOwner(int position) {
+        return reverseOwners.get(position);
+    }
+
+    /**
+     * Get number of edges.
+     *
+     * @return the number of edges
+     */
+    int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Get source node of edge.
+     *
+     * @param edge the edge id
+     *
+     * @return the source node id
+     */
+    int edgeSource(int edge) {
+        return edgeSources.get(edge);
+    }
+
+    /**
+     * Get target node of edge.
+     *
+     * @param edge the edge id
+     *
+     * @return the target node id or {@link ObjectGraph#NONE} for {@code
+     *         null}
+     */
+    int edgeTarget(int edge) {
+        return edgeTargets.get(edge);
+    }
+
+    /**
+     * Get field of edge.
+     *
+     * @param edge the edge id
+     *
+     * @return the field
+     */
+    @Nullable
+    Field edgeField(int edge) {
+        int fieldId = edgeLabels.get(edge) >> LABEL_BITS;
+        return fieldId == NONE ? null : fields.get(fieldId);
+    }
+
+    /**
+     * Get reference type of edge.
+     *
+     * @param edge the edge id
+     *
+     * @return the reference type
+     */
+    ReferenceType edgeType(int edge) {
+        return REFERENCE_TYPES[edgeLabels.get(edge) & TYPE_MASK];
+    }
+
+    /**
+     * Test if edge is reachable via reverse index.
+     *
+     * @param edge the edge id
+     *
+     * @return {@code true} if edge is backreferenced
+     */
+    boolean isBackreferenced(int edge) {
+        return (edgeLabels.get(edge) & BACKREFERENCED) != 0;
+    }
+
+    /**
+     * Test if target of edge was scheduled for traversal via this edge.
+     *
+     * @param edge the edge id
+     *
+     * @return {@code true} if edge is cascaded
+     */
+    boolean isCascaded(int edge) {
+        return (edgeLabels.get(edge) & CASCADED) != 0;
+    }
+
+    /**
+     * Get position of first backreference added to edge with {@link
+     * Writer#backreference(int, int, int)}.
+     *
+     * @param edge the edge id
+     *
+     * @return the position
+     */
+    int extraStart(int edge) {
+        return firstExtraOf(edge);
+    }
+
+    /**
+     * Get position after last backreference added to edge with {@link
+     * Writer#backreference(int, int, int)}.
+     *
+     * @param edge the edge id
+     *
+     * @return the position
+     */
+    int extraEnd(int edge) {
+        int extra = firstExtraOf(edge);
+        while (extra < extraCount && extraEdges.get(extra) == edge) {
+            extra++;
+        }
+        return extra;
+    }
+
+    /**
+     * Get target of backreference.
+     *
+     * @param position the position
+     *
+     * @return the target node id
+     */
+    int extraTarget(int position) {
+        return extraTargets.get(position);
+    }
+
+    /**
+     * Get owner of backreference.
+     *
+     * @param position the position
+     *
+     * @return the owner node id
+     */
+    int extraOwner(int position) {
+        return extraOwners.get(position);
+    }
+
+    /**
+     * Get fingerprint of node's outgoing references.
+     *
+     * @param node the node id
+     *
+     * @return the fingerprint or {@link ObjectGraph#NO_FINGERPRINT}
+     */
+    long fingerprint(int node) {
+        return fingerprints[node];
+    }
+
+    /**
+     * Get id of node in previous graph, if node edges were copied from there.
+     *
+     * @param node the node id
+     *
+     * @return the node id in previous graph or {@link ObjectGraph#NONE} if
+     *         node was visited from scratch
+     */
+    int previousNode(int node) {
+        return previousNodes[node];
+    }
+
+    /**
+     * Create {@link ObjectValue} view of edge.
+     *
+     * @param edge the edge id
+     *
+     * @return the object value
+     */
+    ObjectValue value(int edge) {
+        return new ObjectValue(
+                edgeType(edge),
+                edgeField(edge),
+                node(edgeTargets.get(edge))
+        );
+    }
+
+    /**
+     * Replace strong references to objects with weak ones, so that the graph
+     * does not keep scanned objects alive. Graph stays readable, but objects
+     * that were garbage collected are reported as {@code null}. No objects
+     * can be added to the graph afterwards.
+     *
+     * @param retainStrongly the predicate selecting objects that should stay
+     *                       strongly referenced
+     */
+    void weaken(Predicate<Object> retainStrongly) {
+        for (int node = 0; node < nodeCount; node++) {
+            Object object = nodes[node];
+            if (object != null && !(object instanceof WeakNode) && !retainStrongly.test(object)) {
+                nodes[node] = new WeakNode(object);
+            }
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int slot = 0; slot < stripe.keys.length; slot++) {
+                    if (stripe.keys[slot] != null) {
+                        stripe.keys[slot] = nodes[Stripe.idOf(stripe.ids[slot])];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all nodes and edges.
+     */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        for (IntStore store : stores()) {
+            store.close();
+        }
+        writers.clear();
+        nodeCounter.set(0);
+        visitedCounter.set(0);
+        nodeCount       = 0;
+        nodes           = new Object[0];
+        ownScopes       = new int[0];
+        inheritedScopes = new int[0];
+        fingerprints    = new long[0];
+        previousNodes   = new int[0];
+        edgeCount       = 0;
+        extraCount      = 0;
+        forwardOffsets  = new int[]{0};
+        reverseOffsets  = new int[]{0};
+        spilled         = false;
+    }
+
+    /**
+     * Open-addressing identity table mapping objects to node ids. Visited
+     * nodes are stored as {@code ~id}.
+     */
+    private static final class Stripe {
+
+        private int[] ids = new int[16];
+
+        private Object[] keys = new Object[16];
+
+        private int size;
+
+        private static int idOf(int storedId) {
+            return storedId < 0 ? ~storedId : storedId;
+        }
+
+        private int slotOf(Object key, int hash) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (keys[slot] == key || WeakNode.get(keys[slot]) == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        private int insert(int slot, Object key, int id, int hash) {
+            keys[slot] = key;
+            ids[slot]  = id;
+            size++;
+            if (size * 3 >= keys.length * 2) {
+                rehash();
+                return slotOf(
+                        key,
+                        hash
+                );
+            }
+            return slot;
+        }
+
+        private void rehash() {
+            Object[] oldKeys = keys;
+            int[]    oldIds  = ids;
+            keys = new Object[oldKeys.length * 2];
+            ids  = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = WeakNode.hash(oldKeys[i]) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    ids[slot]  = oldIds[i];
+                }
+            }
+        }
+
+        private void clear() {
+            keys = new Object[16];
+            ids  = new int[16];
+            size = 0;
+        }
+
+    }
+
+    /**
+     * Weak reference to object of weakened graph. Keeps identity hash of
+     * object, so that identity table can still be rehashed when referent is
+     * gone.
+     */
+    private static final class WeakNode extends WeakReference<Object> {
+
+        private final int hash;
+
+        private WeakNode(Object referent) {
+            super(referent);
+            hash = mix(referent);
+        }
+
+        @Nullable
+        private static Object get(@Nullable Object node) {
+            return node instanceof WeakNode ? ((WeakNode) node).get() : node;
+        }
+
+        private static int hash(Object node) {
+            return node instanceof WeakNode ? ((WeakNode) node).hash : mix(node);
+        }
+
+    }
+
+    /**
+     * Per-thread buffer of nodes and edges discovered during traversal.
+     */
+    final class Writer {
+
+        private final IntList edgeLabelLog = new IntList();
+
+        private final IntList edgeSourceLog = new IntList();
+
+        private final IntList edgeTargetLog = new IntList();
+
+        private final IntList extraEdgeLog = new IntList();
+
+        private final IntList extraOwnerLog = new IntList();
+
+        private final IntList extraTargetLog = new IntList();
+
+        private final IntList nodeIdLog = new IntList();
+
+        private final IntList previousNodeLog = new IntList();
+
+        private final IntList reusedNodeLog = new IntList();
+
+        private final List<Object> nodeLog = new ArrayList<>();
+
+        private final IntList visitIdLog = new IntList();
+
+        private final IntList visitScopeLog = new IntList();
+
+        private long[] visitFingerprintLog = new long[16];
+
+        private Writer() {}
+
+        /**
+         * Get node id of object, adding it to the graph if needed.
+         *
+         * @param object the object
+         *
+         * @return the node id or {@link ObjectGraph#NONE} for {@code null}
+         */
+        int node(@Nullable Object object) {
+            if (object == null) {
+                return NONE;
+            }
+            int    hash   = mix(object);
+            Stripe stripe = stripeFor(hash);
+            synchronized (stripe) {
+                int slot = stripe.slotOf(
+                        object,
+                        hash
+                );
+                if (slot >= 0) {
+                    return Stripe.idOf(stripe.ids[slot]);
+                }
+                int id = nodeCounter.getAndIncrement();
+                stripe.insert(
+                        ~slot,
+                        object,
+                        id,
+                        hash
+                );
+                nodeIdLog.add(id);
+                nodeLog.add(object);
+                return id;
+            }
+        }
+
+        /**
+         * Mark object as visited, adding it to the graph if needed.
+         *
+         * @param object      the object
+         * @param scope       the own scope of object
+         * @param fingerprint the fingerprint of object references
+         *
+         * @return the node id or {@link ObjectGraph#NONE} if object was
+         *         already visited
+         */
+        int visit(Object object, @Nullable String scope, long fingerprint) {
+            if (edgeSourceLog.size() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+            int    hash   = mix(object);
+            Stripe stripe = stripeFor(hash);
+            int    id;
+            synchronized (stripe) {
+                int slot = stripe.slotOf(
+                        object,
+                        hash
+                );
+                if (slot >= 0) {
+                    if (stripe.ids[slot] < 0) {
+                        return NONE;
+                    }
+                    id = stripe.ids[slot];
+                } else {
+                    id   = nodeCounter.getAndIncrement();
+                    slot = stripe.insert(
+                            ~slot,
+                            object,
+                            id,
+                            hash
+                    );
+                    nodeIdLog.add(id);
+                    nodeLog.add(object);
+                }
+                stripe.ids[slot] = ~id;
+            }
+            visitedCounter.incrementAndGet();
+            if (visitIdLog.size() == visitFingerprintLog.length) {
+                visitFingerprintLog = Arrays.copyOf(
+                        visitFingerprintLog,
+                        visitFingerprintLog.length * 2
+                );
+            }
+            visitFingerprintLog[visitIdLog.size()] = fingerprint;
+            visitIdLog.add(id);
+            visitScopeLog.add(scopeId(scope));
+            return id;
+        }
+
+        /**
+         * Set fingerprint of node visited last by this writer.
+         *
+         * @param node        the node id returned by last {@link
+         *                    Writer#visit(Object, String, long)}
+         * @param fingerprint the fingerprint of object references
+         */
+        void updateFingerprint(int node, long fingerprint) {
+            if (visitIdLog.size() == 0 || visitIdLog.get(visitIdLog.size() - 1) != node) {
+                throw new IllegalStateException("Node " + node + " is not visited last");
+            }
+            visitFingerprintLog[visitIdLog.size() - 1] = fingerprint;
+        }
+
+        /**
+         * Add edge.
+         *
+         * @param source         the source node id
+         * @param target         the target node id
+         * @param field          the field
+         * @param referenceType  the reference type
+         * @param backreferenced {@code true} if edge should be reachable via
+         *                       reverse index
+         * @param cascaded       {@code true} if target was scheduled for
+         *                       traversal via this edge
+         *
+         * @return the edge handle, valid within this writer only
+         */
+        int edge(int source,
+                 int target,
+                 @Nullable Field field,
+                 ReferenceType referenceType,
+                 boolean backreferenced,
+                 boolean cascaded) {
+            return addEdge(
+                    source,
+                    target,
+                    fieldId(field),
+                    referenceType.ordinal()
+                    | (backreferenced ? BACKREFERENCED : 0)
+                    | (cascaded ? CASCADED : 0)
+            );
+        }
+
+        private int addEdge(int source, int target, int fieldId, int flags) {
+            edgeSourceLog.add(source);
+            edgeTargetLog.add(target);
+            edgeLabelLog.add(fieldId << LABEL_BITS | flags);
+            return edgeSourceLog.size() - 1;
+        }
+
+        /**
+         * Copy outgoing edges of node from previous graph, including map key
+         * backreferences added while visiting it. Nothing is copied if any
+         * of referenced objects was garbage collected since the previous
+         * graph was weakened.
+         *
+         * @param previous     the previous graph
+         * @param previousNode the node id in previous graph
+         * @param node         the node id in this graph
+         * @param cascade      the callback receiving objects that were
+         *                     scheduled for traversal via copied edges
+         *
+         * @return {@code true} if edges were copied
+         */
+        boolean reuse(ObjectGraph previous,
+                      int previousNode,
+                      int node,
+                      Consumer<Object> cascade) {
+            int end = previous.forwardEnd(previousNode);
+            if (!previous.isAlive(
+                    previousNode,
+                    end
+            )) {
+                return false;
+            }
+            for (int position = previous.forwardStart(previousNode); position < end; position++) {
+                int    edge   = previous.forwardEdge(position);
+                int    label  = previous.edgeLabels.get(edge);
+                Object target = previous.node(previous.edgeTargets.get(edge));
+                int handle = addEdge(
+                        node,
+                        node(target),
+                        fieldId(previous.edgeField(edge)),
+                        label & 0xFF
+                );
+                for (int extra = previous.firstExtraOf(edge);
+                     extra < previous.extraCount && previous.extraEdges.get(extra) == edge;
+                     extra++) {
+                    backreference(
+                            node(previous.node(previous.extraTargets.get(extra))),
+                            node(previous.node(previous.extraOwners.get(extra))),
+                            handle
+                    );
+                }
+                if ((label & CASCADED) != 0) {
+                    cascade.accept(target);
+                }
+            }
+            reusedNodeLog.add(node);
+            previousNodeLog.add(previousNode);
+            return true;
+        }
+
+        /**
+         * Add backreference to target from owner other than the edge source.
+         *
+         * @param target the target node id
+         * @param owner  the owner node id
+         * @param edge   the edge handle returned by {@link Writer#edge(int,
+         *               int, Field, ReferenceType, boolean, boolean)}
+         */
+        void backreference(int target, int owner, int edge) {
+            extraTargetLog.add(target);
+            extraOwnerLog.add(owner);
+            extraEdgeLog.add(edge);
+        }
+
+        /**
+         * Move collected nodes and edges to the graph. Edge handles returned
+         * earlier become invalid.
+         */
+        private void flush() {
+            synchronized (ObjectGraph.this) {
+                mergeInto();
+                checkBudget();
+            }
+            nodeIdLog.clear();
+            nodeLog.clear();
+            visitIdLog.clear();
+            visitScopeLog.clear();
+            reusedNodeLog.clear();
+            previousNodeLog.clear();
+            edgeSourceLog.clear();
+            edgeTargetLog.clear();
+            edgeLabelLog.clear();
+            extraTargetLog.clear();
+            extraOwnerLog.clear();
+            extraEdgeLog.clear();
+        }
+
+        private void mergeInto() {
+            ensureNodeCapacity(nodeCounter.get());
+            for (int i = 0; i < nodeIdLog.size(); i++) {
+                nodes[nodeIdLog.get(i)] = nodeLog.get(i);
+            }
+            for (int i = 0; i < visitIdLog.size(); i++) {
+                ownScopes[visitIdLog.get(i)]    = visitScopeLog.get(i);
+                fingerprints[visitIdLog.get(i)] = visitFingerprintLog[i];
+            }
+            for (int i = 0; i < reusedNodeLog.size(); i++) {
+                previousNodes[reusedNodeLog.get(i)] = previousNodeLog.get(i);
+            }
+
+            int base  = edgeCount;
+            int count = edgeSourceLog.size();
+            edgeSources.ensureCapacity(base + count);
+            edgeTargets.ensureCapacity(base + count);
+            edgeLabels.ensureCapacity(base + count);
+            for (int i = 0; i < count; i++) {
+                edgeSources.set(
+                        base + i,
+                        edgeSourceLog.get(i)
+                );
+                edgeTargets.set(
+                        base + i,
+                        edgeTargetLog.get(i)
+                );
+                edgeLabels.set(
+                        base + i,
+                        edgeLabelLog.get(i)
+                );
+            }
+            edgeCount += count;
+
+            int extraBase = extraCount;
+            int extras    = extraTargetLog.size();
+            extraTargets.ensureCapacity(extraBase + extras);
+            extraOwners.ensureCapacity(extraBase + extras);
+            extraEdges.ensureCapacity(extraBase + extras);
+            for (int i = 0; i < extras; i++) {
+                extraTargets.set(
+                        extraBase + i,
+                        extraTargetLog.get(i)
+                );
+                extraOwners.set(
+                        extraBase + i,
+                        extraOwnerLog.get(i)
+                );
+                extraEdges.set(
+                        extraBase + i,
+                        base + extraEdgeLog.get(i)
+                );
+            }
+            extraCount += extras;
+        }
+
+    }
+
+}
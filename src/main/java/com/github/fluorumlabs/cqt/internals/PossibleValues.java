@@ -24,13 +24,8 @@
 package com.github.fluorumlabs.cqt.internals;
 
 import com.github.fluorumlabs.cqt.utils.Classes;
-import jdk.internal.org.objectweb.asm.ClassReader;
-import jdk.internal.org.objectweb.asm.Opcodes;
 import jdk.internal.org.objectweb.asm.Type;
-import jdk.internal.org.objectweb.asm.tree.*;
-import jdk.internal.org.objectweb.asm.tree.analysis.*;
 
-import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -54,9 +49,9 @@ public class PossibleValues {
         this.clazz = clazz;
     }
 
-    private static String formatMethodName(MethodNode methodNode) {
-        return methodNode.name + "(" + Stream
-                .of(getArgumentTypes(methodNode.desc))
+    private static String formatMethodName(ClassIndex.MethodInfo method) {
+        return method.getName() + "(" + Stream
+                .of(getArgumentTypes(method.getDesc()))
                 .map(PossibleValues::getClassName)
                 .collect(Collectors.joining(", ")) + ")";
     }
@@ -99,8 +94,8 @@ public class PossibleValues {
         }
     }
 
-    private static String getCollectionsWrapperClass(String name,
-                                                     String defaultValue) {
+    static String getCollectionsWrapperClass(String name,
+                                             String defaultValue) {
         switch (name) {
             case "emptyList":
                 return Classes.EMPTY_LIST.getName();
@@ -165,20 +160,14 @@ public class PossibleValues {
      * @return the map of field name {@literal ->} set of {@link PossibleValue}
      */
     public Map<String, Set<PossibleValue>> findPossibleValues() {
-        try {
-            return collectPossibleValues();
-        } catch (IOException | AnalyzerException e) {
-            // ignore
-        }
-        return Collections.emptyMap();
+        return collectPossibleValues(ClassIndex.of(clazz));
     }
 
     private void addPossibleFieldValue(Map<String, Map<String, PossibleValue>> results,
                                        String fieldName,
-                                       String fieldDesc,
                                        boolean array,
                                        String desc,
-                                       MethodNode method) {
+                                       ClassIndex.MethodInfo method) {
         if (desc.endsWith("[]") || desc.indexOf('.') < 0) {
             // Skip arrays or primitives
             return;
@@ -222,73 +211,18 @@ public class PossibleValues {
         }
     }
 
-    private Map<String, Set<PossibleValue>> collectPossibleValues() throws
-                                                                    IOException,
-                                                                    AnalyzerException {
+    private Map<String, Set<PossibleValue>> collectPossibleValues(ClassIndex index) {
         Map<String, Map<String, PossibleValue>> results = new HashMap<>();
 
-        ClassNode   classNode = new ClassNode();
-        ClassReader cr        = new ClassReader(clazz.getName());
-        cr.accept(
-                classNode,
-                0
-        );
-
-        for (MethodNode method : classNode.methods) {
-            Analyzer<SourceValue> analyzer = new Analyzer<>(new SourceInterpreter());
-            analyzer.analyze(
-                    classNode.name,
-                    method
-            );
-
-            AbstractInsnNode[] abstractInsnNodes = method.instructions.toArray();
-            for (int i = 0; i < abstractInsnNodes.length; i++) {
-                if (abstractInsnNodes[i] instanceof FieldInsnNode) {
-                    FieldInsnNode insn = (FieldInsnNode) abstractInsnNodes[i];
-                    if ((insn.getOpcode() == Opcodes.PUTFIELD
-                         || insn.getOpcode() == Opcodes.PUTSTATIC)) {
-                        String               fieldName = insn.name;
-                        String               fieldDesc = getType(insn.desc).getClassName();
-                        boolean              array     = insn.desc.startsWith("[");
-                        Frame<SourceValue>[] frames    = analyzer.getFrames();
-                        Frame<SourceValue>   current   = frames[i];
-                        SourceValue topValue = current.getStack(current.getStackSize()
-                                                                - 1);
-                        for (AbstractInsnNode abstractInsnNode : topValue.insns) {
-                            if (abstractInsnNode instanceof TypeInsnNode) {
-                                String desc = getObjectType(((TypeInsnNode) abstractInsnNode).desc)
-                                        .getClassName();
-                                addPossibleFieldValue(
-                                        results,
-                                        fieldName,
-                                        fieldDesc,
-                                        array,
-                                        desc,
-                                        method
-                                );
-                            } else if (abstractInsnNode instanceof MethodInsnNode) {
-                                String desc = getType(((MethodInsnNode) abstractInsnNode).desc)
-                                        .getReturnType()
-                                        .getClassName();
-                                String name = ((MethodInsnNode) abstractInsnNode).name;
-                                if (((MethodInsnNode) abstractInsnNode).owner.equals(getInternalName(Collections.class))) {
-                                    desc = getCollectionsWrapperClass(
-                                            name,
-                                            desc
-                                    );
-                                }
-                                addPossibleFieldValue(
-                                        results,
-                                        fieldName,
-                                        fieldDesc,
-                                        array,
-                                        desc,
-                                        method
-                                );
-                            }
-                        }
-                    }
-                }
+        for (ClassIndex.FieldWrite fieldWrite : index.getFieldWrites()) {
+            for (String desc : fieldWrite.getValueTypes()) {
+                addPossibleFieldValue(
+                        results,
+                        fieldWrite.getFieldName(),
+                        fieldWrite.isArray(),
+                        desc,
+                        index.getMethod(fieldWrite.getMethod())
+                );
             }
         }
 
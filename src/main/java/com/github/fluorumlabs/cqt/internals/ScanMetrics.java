@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and throughput counters of scans. Per-scan values are reset when
+ * scan starts and can be read while it runs; totals accumulate over all
+ * scans.
+ * <p>
+ * Phases are timed on scanning thread, except possible values, which are
+ * computed by traversal threads as classes are reached: their time is
+ * summed over threads and is included in visit time.
+ */
+public final class ScanMetrics {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    private final AtomicLongArray totalPhaseNanos = new AtomicLongArray(Phase.values().length);
+
+    private final AtomicLong scans = new AtomicLong();
+
+    private final AtomicLong scanStart = new AtomicLong();
+
+    private final AtomicLong scanNanos = new AtomicLong();
+
+    private final AtomicLong totalScanNanos = new AtomicLong();
+
+    private final AtomicLong visitedCount = new AtomicLong();
+
+    private final AtomicLong queueDepth = new AtomicLong();
+
+    private final AtomicLong peakQueueDepth = new AtomicLong();
+
+    private final AtomicLong peakGraphNodes = new AtomicLong();
+
+    private final AtomicLong peakGraphBytes = new AtomicLong();
+
+    private volatile boolean running;
+
+    /**
+     * Start new scan.
+     */
+    void start() {
+        for (int i = 0; i < phaseNanos.length(); i++) {
+            phaseNanos.set(
+                    i,
+                    0
+            );
+        }
+        visitedCount.set(0);
+        queueDepth.set(0);
+        peakQueueDepth.set(0);
+        peakGraphNodes.set(0);
+        peakGraphBytes.set(0);
+        scanStart.set(System.nanoTime());
+        scans.incrementAndGet();
+        running = true;
+    }
+
+    /**
+     * Finish current scan. Does nothing if scan is not running.
+     */
+    public void finish() {
+        if (running) {
+            running = false;
+            long nanos = System.nanoTime() - scanStart.get();
+            scanNanos.set(nanos);
+            totalScanNanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * Add time spent in phase.
+     *
+     * @param phase the phase
+     * @param nanos the time in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+        phaseNanos.addAndGet(
+                phase.ordinal(),
+                nanos
+        );
+        totalPhaseNanos.addAndGet(
+                phase.ordinal(),
+                nanos
+        );
+    }
+
+    /**
+     * Update traversal counters.
+     *
+     * @param visited    the number of visited objects
+     * @param queued     the number of objects waiting to be visited
+     * @param graphNodes the number of object graph nodes
+     * @param graphBytes the estimated heap size of object graph
+     */
+    void update(long visited, long queued, long graphNodes, long graphBytes) {
+        visitedCount.set(visited);
+        queueDepth.set(queued);
+        peakQueueDepth.accumulateAndGet(
+                queued,
+                Math::max
+        );
+        peakGraphNodes.accumulateAndGet(
+                graphNodes,
+                Math::max
+        );
+        peakGraphBytes.accumulateAndGet(
+                graphBytes,
+                Math::max
+        );
+    }
+
+    /**
+     * Get duration of last finished scan.
+     *
+     * @return the duration in nanoseconds, or {@code 0} if no scan finished
+     *         yet
+     */
+    public long getLastScanNanos() {
+        return scanNanos.get();
+    }
+
+    /**
+     * Get number of objects visited by last or current scan.
+     *
+     * @return the number of visited objects
+     */
+    public long getVisitedCount() {
+        return visitedCount.get();
+    }
+
+    /**
+     * Get visited objects per second of visit phase.
+     *
+     * @return the throughput, or {@code 0} if nothing was visited yet
+     */
+    public double getObjectsPerSecond() {
+        long nanos = phaseNanos.get(Phase.VISIT.ordinal());
+        return nanos > 0
+               ? visitedCount.get() * NANOS_PER_SECOND / nanos
+               : 0;
+    }
+
+    /**
+     * Write metrics as JSON object.
+     *
+     * @param output the output
+     */
+    public void writeJson(PrintWriter output) {
+        output.println("{");
+        output.println("  \"running\": " + running + ",");
+        output.println("  \"scans\": " + scans.get() + ",");
+        output.println("  \"durationSeconds\": " + seconds(currentScanNanos()) + ",");
+        output.println("  \"phaseSeconds\": {");
+        for (Phase phase : Phase.values()) {
+            output.println("    \"" + phase.getName() + "\": "
+                           + seconds(phaseNanos.get(phase.ordinal()))
+                           + (phase.ordinal() < phaseNanos.length() - 1 ? "," : ""));
+        }
+        output.println("  },");
+        output.println("  \"objectsPerSecond\": " + format(getObjectsPerSecond()) + ",");
+        output.println("  \"visitedCount\": " + visitedCount.get() + ",");
+        output.println("  \"queueDepth\": " + queueDepth.get() + ",");
+        output.println("  \"peakQueueDepth\": " + peakQueueDepth.get() + ",");
+        output.println("  \"peakGraphNodes\": " + peakGraphNodes.get() + ",");
+        output.println("  \"peakGraphBytes\": " + peakGraphBytes.get() + ",");
+        output.println("  \"totalScanSeconds\": " + seconds(totalScanNanos.get()));
+        output.println("}");
+    }
+
+    /**
+     * Write metrics in Prometheus text exposition format.
+     *
+     * @param output the output
+     */
+    public void writePrometheus(PrintWriter output) {
+        metric(
+                output,
+                "cqt_scan_running",
+                "gauge",
+                "Whether scan is running.",
+                running ? "1" : "0"
+        );
+        metric(
+                output,
+                "cqt_scans_total",
+                "counter",
+                "Number of started scans.",
+                Long.toString(scans.get())
+        );
+        metric(
+                output,
+                "cqt_scan_duration_seconds",
+                "gauge",
+                "Duration of last or current scan.",
+                seconds(currentScanNanos())
+        );
+        metric(
+                output,
+                "cqt_scan_seconds_total",
+                "counter",
+                "Time spent in finished scans.",
+                seconds(totalScanNanos.get())
+        );
+        header(
+                output,
+                "cqt_scan_phase_seconds",
+                "gauge",
+                "Time spent in phase of last or current scan."
+        );
+        for (Phase phase : Phase.values()) {
+            output.println("cqt_scan_phase_seconds{phase=\"" + phase.getName() + "\"} "
+                           + seconds(phaseNanos.get(phase.ordinal())));
+        }
+        header(
+                output,
+                "cqt_scan_phase_seconds_total",
+                "counter",
+                "Time spent in phase over all scans."
+        );
+        for (Phase phase : Phase.values()) {
+            output.println("cqt_scan_phase_seconds_total{phase=\"" + phase.getName() + "\"} "
+                           + seconds(totalPhaseNanos.get(phase.ordinal())));
+        }
+        metric(
+                output,
+                "cqt_scan_objects_per_second",
+                "gauge",
+                "Visited objects per second of visit phase.",
+                format(getObjectsPerSecond())
+        );
+        metric(
+                output,
+                "cqt_scan_visited_objects",
+                "gauge",
+                "Number of visited objects.",
+                Long.toString(visitedCount.get())
+        );
+        metric(
+                output,
+                "cqt_scan_queue_depth",
+                "gauge",
+                "Number of objects waiting to be visited.",
+                Long.toString(queueDepth.get())
+        );
+        metric(
+                output,
+                "cqt_scan_queue_depth_peak",
+                "gauge",
+                "Peak number of objects waiting to be visited.",
+                Long.toString(peakQueueDepth.get())
+        );
+        metric(
+                output,
+                "cqt_scan_graph_nodes_peak",
+                "gauge",
+                "Peak number of object graph nodes.",
+                Long.toString(peakGraphNodes.get())
+        );
+        metric(
+                output,
+                "cqt_scan_graph_bytes_peak",
+                "gauge",
+                "Peak estimated heap size of object graph.",
+                Long.toString(peakGraphBytes.get())
+        );
+    }
+
+    private long currentScanNanos() {
+        return running
+               ? System.nanoTime() - scanStart.get()
+               : scanNanos.get();
+    }
+
+    private static void metric(PrintWriter output,
+                               String name,
+                               String type,
+                               String help,
+                               String value) {
+        header(
+                output,
+                name,
+                type,
+                help
+        );
+        output.println(name + " " + value);
+    }
+
+    private static void header(PrintWriter output,
+                               String name,
+                               String type,
+                               String help) {
+        output.println("# HELP " + name + " " + help);
+        output.println("# TYPE " + name + " " + type);
+    }
+
+    private static String seconds(long nanos) {
+        return format(nanos / NANOS_PER_SECOND);
+    }
+
+    private static String format(double value) {
+        return String.format(
+                Locale.ROOT,
+                "%.6f",
+                value
+        );
+    }
+
+    /**
+     * Timed phase of scan.
+     */
+    public enum Phase {
+        VISIT("visit"),
+        POSSIBLE_VALUES("possible_values"),
+        EXPOSED_MEMBERS("exposed_members"),
+        PROPAGATION("propagation"),
+        ANALYSIS("analysis"),
+        RENDER("render");
+
+        private final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get phase name used in metrics.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+}
@@ -23,7 +23,6 @@
 
 package com.github.fluorumlabs.cqt.internals;
 
-import com.github.fluorumlabs.cqt.CodeQualityTestServer;
 import com.github.fluorumlabs.cqt.data.Inspection;
 import com.github.fluorumlabs.cqt.data.ReferenceType;
 import com.github.fluorumlabs.cqt.utils.Unreflection;
@@ -34,44 +33,130 @@ import com.github.fluorumlabs.cqt.data.Reference;
 import com.github.fluorumlabs.cqt.engine.EngineInstance;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
 
 /**
  * Scanner - the heart of Code Quality Test.
  */
 public class Scanner {
 
+    private static final int CHUNK_SIZE = 4096;
+
     private static final long DISPLAY_INTERVAL = TimeUnit.MILLISECONDS.toNanos(300);
 
-    private final Map<Object, List<Reference>> backreferences = new IdentityHashMap<>();
+    private static final int PROPAGATION_CHUNK_SIZE = 4096;
+
+    private final Collection<Class<?>> classes = new ConcurrentLinkedQueue<>();
 
-    private final Collection<Class<?>> classes = new ArrayDeque<>();
+    private final ClassValue<Map<String, Set<PossibleValue>>> possibleValues = new ClassValue<Map<String, Set<PossibleValue>>>() {
+        @Override
+        protected Map<String, Set<PossibleValue>> computeValue(Class<?> type) {
+            long start = System.nanoTime();
+            try {
+                return immutableCopyOf(new PossibleValues(type).findPossibleValues());
+            } finally {
+                metrics.record(
+                        ScanMetrics.Phase.POSSIBLE_VALUES,
+                        System.nanoTime() - start
+                );
+            }
+        }
+    };
 
-    private final Map<String, Map<String, Set<PossibleValue>>> computedPotentialValues = new HashMap<>();
+    private final ClassValue<ClassLayout> classLayouts = new ClassValue<ClassLayout>() {
+        @Override
+        protected ClassLayout computeValue(Class<?> type) {
+            return new ClassLayout(
+                    type,
+                    Scanner.this::getPossibleValues
+            );
+        }
+    };
 
+    private final Set<Class<?>> submittedClasses = ConcurrentHashMap.newKeySet();
     private final Predicate<Class<?>> filter;
 
     private final List<Inspection> inspections = new ArrayList<>();
 
+    private final ScanMetrics metrics = new ScanMetrics();
+
+    private final InstanceSampler sampler = new InstanceSampler();
+
     private final Queue<Object> scannerQueue = new ArrayDeque<>();
 
-    private final Map<Object, ObjectData> visitedObjects = new IdentityHashMap<>();
+    private final Object threadLocalIndexLock = new Object();
+
+    private final AtomicReference<Throwable> traversalFailure = new AtomicReference<>();
+
+    private ClassValue<ClassTraits> classTraits = newClassTraits(x -> false);
+
+    private ObjectGraph graph = new ObjectGraph();
+
+    private Predicate<Class<?>> skipRule = x -> false;
+
+    private volatile boolean cancelled;
+
+    private volatile boolean interrupted;
+
+    private boolean incremental;
+
+    private long maxGraphBytes = Long.MAX_VALUE;
+
+    private int maxGraphObjects = Integer.MAX_VALUE;
 
     private int maxReferences = 10;
 
+    private double dutyCycle = 1;
+
+    private long maxSlice = Long.MAX_VALUE;
+
+    private volatile Throttle.Budget throttleBudget = new Throttle.Budget(
+            dutyCycle,
+            maxSlice
+    );
+
     private PrintWriter output;
 
+    private int parallelism = 1;
+
+    @Nullable
+    private ForkJoinPool analysisPool;
+
+    @Nullable
+    private ObjectGraph previousGraph;
+
+    private double[] samplingWeights = new double[0];
+
+    @Nullable
+    private volatile HeapDump heapDump;
+
+    @Nullable
+    private volatile ThreadLocalIndex threadLocalIndex;
+
+    @Nullable
+    private volatile ForkJoinPool traversalPool;
+
     /**
      * Instantiates a new Scanner.
      *
@@ -104,46 +189,80 @@ public class Scanner {
         inspections.addAll(suiteSupplier.get().register(this));
     }
 
+    /**
+     * Add rule selecting classes which instances should be skipped: they are
+     * neither traversed nor reported. Primitive wrappers, strings, class
+     * loaders, proxies and reflection classes are always skipped.
+     *
+     * @param rule the predicate selecting classes to skip
+     */
+    public void addSkipRule(Predicate<Class<?>> rule) {
+        skipRule    = skipRule.or(rule);
+        classTraits = newClassTraits(skipRule);
+    }
+
+    private static ClassValue<ClassTraits> newClassTraits(Predicate<Class<?>> skipRule) {
+        return new ClassValue<ClassTraits>() {
+            @Override
+            protected ClassTraits computeValue(Class<?> type) {
+                return new ClassTraits(
+                        type,
+                        skipRule
+                );
+            }
+        };
+    }
+
     /**
      * Run inspections and collect inspection results.
      *
      * @return the list of inspection results
      */
     public List<InspectionResult> analyze() {
-        List<InspectionResult> results    = new ArrayList<>();
-        List<Reference>        references = getAllReferences();
+        long start = System.nanoTime();
+        if (sampler.isEnabled()) {
+            computeSamplingWeights();
+        }
+        // References are built one at a time and kept only if matched
+        List<InspectionResult>     results    = new ArrayList<>(inspections.size());
+        List<Predicate<Reference>> predicates = new ArrayList<>(inspections.size());
         for (Inspection inspection : inspections) {
-            InspectionResult result = new InspectionResult(inspection);
-            references
-                    .stream()
-                    .filter(inspection.getPredicate())
-                    .forEach(result::add);
-            if (result.hasReferences()) {
-                results.add(result);
-            }
+            results.add(new InspectionResult(inspection));
+            predicates.add(inspection.getPredicate());
         }
-        return results;
-    }
-
-    private List<Reference> getAllReferences() {
-        List<Reference> result = new ArrayList<>();
-        for (Map.Entry<Object, ObjectData> entry : visitedObjects.entrySet()) {
-            boolean    ownerInScope = matchesFilter(entry.getKey());
-            ObjectData data         = entry.getValue();
-            for (ObjectValue value : data.getValues()) {
-                if (ownerInScope && (value.getField() == null
-                                     || matchesFilter(value
-                                                              .getField()
-                                                              .getDeclaringClass()))) {
-                    result.add(Reference.from(
-                            entry.getKey(),
-                            value,
-                            this
-                    ));
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            checkCancelled();
+            Object owner = graph.node(node);
+            if (!graph.isVisited(node) || !matchesFilter(owner)) {
+                continue;
+            }
+            ObjectData ownerData = getData(node);
+            int        end       = graph.forwardEnd(node);
+            for (int position = graph.forwardStart(node); position < end; position++) {
+                int   edge  = graph.forwardEdge(position);
+                Field field = graph.edgeField(edge);
+                if (field != null && !matchesFilter(field.getDeclaringClass())) {
+                    continue;
+                }
+                Reference reference = Reference.from(
+                        owner,
+                        graph.value(edge),
+                        ownerData,
+                        this
+                );
+                for (int i = 0; i < predicates.size(); i++) {
+                    if (predicates.get(i).test(reference)) {
+                        results.get(i).add(reference);
+                    }
                 }
             }
         }
-        return result;
+        results.removeIf(result -> !result.hasReferences());
+        metrics.record(
+                ScanMetrics.Phase.ANALYSIS,
+                System.nanoTime() - start
+        );
+        return results;
     }
 
     /**
@@ -173,10 +292,20 @@ public class Scanner {
      * @return the backreferences
      */
     public List<Reference> getBackreferences(Object object) {
-        return backreferences.getOrDefault(
-                object,
-                Collections.emptyList()
-        );
+        int node = graph.find(object);
+        if (node == ObjectGraph.NONE) {
+            return Collections.emptyList();
+        }
+        int             end        = graph.reverseEnd(node);
+        List<Reference> references = new ArrayList<>(end - graph.reverseStart(node));
+        for (int position = graph.reverseStart(node); position < end; position++) {
+            references.add(Reference.from(
+                    graph.node(graph.reverseOwner(position)),
+                    graph.value(graph.reverseEdge(position)),
+                    this
+            ));
+        }
+        return references;
     }
 
     /**
@@ -188,16 +317,309 @@ public class Scanner {
      */
     @Nullable
     public ObjectData getData(Object object) {
-        return visitedObjects.get(object);
+        int node = graph.find(object);
+        return graph.isVisited(node) ? getData(node) : null;
     }
 
     /**
-     * Reset scanner state.
+     * Reset scanner state. In incremental mode the current object graph is
+     * kept as a base for the next scan, unless that scan was stopped by
+     * cancellation.
      */
     public void reset() {
-        visitedObjects.clear();
-        backreferences.clear();
+        shutdownAnalysis();
+        if (incremental && !interrupted) {
+            if (previousGraph != null) {
+                previousGraph.clear();
+            }
+            previousGraph = graph;
+            graph         = new ObjectGraph();
+        } else {
+            // Graph of interrupted scan may be incomplete and is not reused
+            graph.clear();
+        }
+        interrupted = false;
+        graph.setBudget(
+                maxGraphObjects,
+                maxGraphBytes
+        );
         classes.clear();
+        sampler.reset();
+        samplingWeights  = new double[0];
+        threadLocalIndex = null;
+        metrics.start();
+    }
+
+    /**
+     * Cancel running scan. Scan is stopped at the next checkpoint with
+     * {@link CancellationException}; scanner should be {@link #reset()}
+     * before next scan. Cancellation stays requested until {@link
+     * #clearCancellation()}, so that it is not lost when it arrives before
+     * scan reaches its first checkpoint.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Clear cancellation request. Should be called before scan is started.
+     */
+    public void clearCancellation() {
+        cancelled = false;
+    }
+
+    /**
+     * Test if cancellation was requested.
+     *
+     * @return {@code true} if scan is cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            interrupted = true;
+            throw new CancellationException("Scan was cancelled");
+        }
+    }
+
+    /**
+     * Get estimated heap size of object graphs kept by scanner.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedHeapBytes() {
+        ObjectGraph previous = previousGraph;
+        return graph.estimatedHeapBytes()
+               + (previous == null ? 0 : previous.estimatedHeapBytes())
+               + (long) samplingWeights.length * Double.BYTES;
+    }
+
+    /**
+     * Get timings and throughput counters of scans.
+     *
+     * @return the metrics
+     */
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Release strong references to scanned objects once results are
+     * rendered. Scanner data is not available until next scan. In
+     * incremental mode the object graph is kept with weak references
+     * instead, so that objects which are still alive on next scan can be
+     * reused.
+     */
+    public void release() {
+        if (incremental) {
+            graph.weaken(Scanner::isRetainedValue);
+        } else {
+            graph.clear();
+        }
+        classes.clear();
+        threadLocalIndex = null;
+    }
+
+    private static boolean isRetainedValue(Object object) {
+        // Values which are not owned by application and are cheap to keep
+        return object instanceof PossibleValue
+               || object instanceof String
+               || object instanceof Number && object.getClass().getName().startsWith("java.lang.")
+               || object instanceof Boolean
+               || object instanceof Character;
+    }
+
+    /**
+     * Set memory budget of object graph. When scanned graph exceeds any of
+     * the limits, its edges and indexes are moved to memory-mapped temporary
+     * files and scan continues. Takes effect on next {@link Scanner#reset()}.
+     *
+     * @param maxObjects the max number of visited objects kept on heap
+     * @param maxBytes   the max estimated heap size of graph in bytes
+     */
+    public void setMemoryBudget(int maxObjects, long maxBytes) {
+        if (maxObjects < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        this.maxGraphObjects = maxObjects;
+        this.maxGraphBytes   = maxBytes;
+    }
+
+    /**
+     * Enable or disable incremental scanning. In incremental mode scanner
+     * keeps object graph of the previous scan and fingerprints references of
+     * every object; objects with unchanged references reuse collected values
+     * instead of being inspected again. Scopes are propagated again only
+     * within the part of the graph affected by changes.
+     * <p>
+     * Incremental mode keeps up to two object graphs in memory.
+     *
+     * @param incremental {@code true} to enable incremental scanning
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        if (!incremental && previousGraph != null) {
+            previousGraph.clear();
+            previousGraph = null;
+        }
+    }
+
+    /**
+     * Set number of threads used for object traversal and bytecode analysis.
+     * With parallelism of {@code 1} objects are visited and classes are
+     * analyzed on the calling thread.
+     *
+     * @param parallelism the parallelism
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Keep bytecode facts of analyzed classes in specified directory and
+     * reuse them for classes with same bytes, also after JVM restart. Cache
+     * is shared by all scanners and applies to classes not analyzed yet.
+     *
+     * @param directory the cache directory or {@code null} to disable cache
+     *
+     * @throws IOException if cache cannot be opened
+     */
+    public static void setBytecodeCache(@Nullable Path directory) throws IOException {
+        ClassIndex.setCache(directory == null ? null : BytecodeCache.open(directory));
+    }
+
+    /**
+     * Visit at most specified number of instances of every application
+     * class. Instances of classes loaded by bootstrap class loader (JDK
+     * collections, strings etc.) and arrays are not limited.
+     *
+     * @param maxInstances the max number of instances per class
+     */
+    public void setSampling(long maxInstances) {
+        if (maxInstances < 1) {
+            throw new IllegalArgumentException("Max instances must be positive");
+        }
+        sampler.setMaxInstances(maxInstances);
+    }
+
+    /**
+     * Visit only a share of instances of application classes from package
+     * and its subpackages. The most specific package wins.
+     *
+     * @param packageName the package name
+     * @param rate        the share of visited instances, from {@code 0}
+     *                    (exclusive) to {@code 1}
+     */
+    public void setSamplingRate(String packageName, double rate) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Sampling rate must be in (0, 1] range");
+        }
+        sampler.setRate(
+                packageName,
+                rate
+        );
+    }
+
+    /**
+     * Get number of instances represented by the object when instance
+     * sampling is used.
+     *
+     * @param object the object
+     *
+     * @return the number of instances, {@code 1} if no instances of object
+     *         class were skipped
+     * @see Scanner#setSampling(long)
+     * @see Scanner#setSamplingRate(String, double)
+     */
+    public double getSamplingWeight(@Nullable Object object) {
+        int node = graph.find(object);
+        if (node == ObjectGraph.NONE || node >= samplingWeights.length) {
+            return 1;
+        }
+        return samplingWeights[node];
+    }
+
+    private void computeSamplingWeights() {
+        // Object stands for skipped instances of its own class and also for
+        // objects skipped on the way to it, e.g. contents of skipped
+        // sessions. Weight is inherited along breadth-first traversal tree.
+        double[] weights  = new double[graph.nodeCount()];
+        IntList  frontier = new IntList();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (graph.isVisited(node) && graph.reverseStart(node) == graph.reverseEnd(node)) {
+                weights[node] = 1;
+                frontier.add(node);
+            }
+        }
+        spreadSamplingWeights(
+                weights,
+                frontier
+        );
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (weights[node] == 0) {
+                // Not reachable from roots, e.g. cycles and values
+                weights[node] = 1;
+                frontier.add(node);
+                spreadSamplingWeights(
+                        weights,
+                        frontier
+                );
+            }
+        }
+        samplingWeights = weights;
+    }
+
+    private void spreadSamplingWeights(double[] weights, IntList frontier) {
+        for (int i = 0; i < frontier.size(); i++) {
+            int    node   = frontier.get(i);
+            Object object = graph.node(node);
+            if (object != null && !(object instanceof Class)) {
+                weights[node] *= sampler.getWeight(object.getClass());
+            }
+            int end = graph.forwardEnd(node);
+            for (int position = graph.forwardStart(node); position < end; position++) {
+                int target = graph.edgeTarget(graph.forwardEdge(position));
+                if (target != ObjectGraph.NONE && weights[target] == 0) {
+                    weights[target] = weights[node];
+                    frontier.add(target);
+                }
+            }
+        }
+        frontier.clear();
+    }
+
+    /**
+     * Throttle scanning to limit CPU usage. Each scanner thread works for at
+     * most {@code maxSlice} nanoseconds and then pauses, so that all scanner
+     * threads together are busy only {@code dutyCycle} share of time of a
+     * single core, regardless of parallelism.
+     *
+     * @param dutyCycle the share of time spent scanning, from {@code 0}
+     *                  (exclusive) to {@code 1} (no throttling)
+     * @param maxSlice  the max length of work slice in nanoseconds
+     */
+    public void setThrottling(double dutyCycle, long maxSlice) {
+        if (!(dutyCycle > 0 && dutyCycle <= 1)) {
+            throw new IllegalArgumentException("Duty cycle must be in (0, 1] range");
+        }
+        if (maxSlice <= 0) {
+            throw new IllegalArgumentException("Max slice must be positive");
+        }
+        this.dutyCycle      = dutyCycle;
+        this.maxSlice       = maxSlice;
+        this.throttleBudget = new Throttle.Budget(
+                dutyCycle,
+                maxSlice
+        );
+    }
+
+    private Throttle newThrottle() {
+        return new Throttle(throttleBudget);
     }
 
     /**
@@ -218,7 +640,7 @@ public class Scanner {
         Object unwrapped = unwrap(someObject);
         output.println("visiting: "
                        + StringEscapeUtils.escapeHtml4(Objects.toString(unwrapped)));
-        scannerQueue.add(unwrapped);
+        enqueue(unwrapped);
         processQueue();
     }
 
@@ -233,7 +655,7 @@ public class Scanner {
             output.println("class loader: "
                            + StringEscapeUtils.escapeHtml4(Objects.toString(classLoader)));
             list(classLoader).forEach(e -> {
-                scannerQueue.add(e);
+                enqueue(e);
             });
             classLoader = classLoader.getParent();
         }
@@ -241,26 +663,145 @@ public class Scanner {
         processQueue();
     }
 
+    /**
+     * Visit classes of heap dump instead of live objects. Static fields are
+     * read from heap dump, and objects reachable from them are rebuilt as
+     * they are visited. Rebuilt objects are released by heap dump once
+     * traversal completes, and stay reachable only from object graph.
+     *
+     * @param heapDump the heap dump
+     */
+    public void visitHeapDump(HeapDump heapDump) {
+        output.println("heap dump: "
+                       + StringEscapeUtils.escapeHtml4(heapDump.toString()));
+        this.heapDump = heapDump;
+        try {
+            heapDump.getClasses().forEach(this::enqueue);
+            processQueue();
+            Set<String> uninitializedClasses = heapDump.getUninitializedClasses();
+            if (!uninitializedClasses.isEmpty()) {
+                output.println("not rebuilt, classes are not initialized: "
+                               + StringEscapeUtils.escapeHtml4(String.join(
+                        ", ",
+                        uninitializedClasses
+                )));
+            }
+        } finally {
+            this.heapDump = null;
+            heapDump.releaseObjects();
+        }
+    }
+
+    /**
+     * Load object graph from snapshot written by {@link
+     * Scanner#saveSnapshot(Path)} instead of visiting objects. Objects of
+     * classes which are not initialized yet are not rebuilt.
+     *
+     * @param file        the snapshot file
+     * @param classLoader the class loader used to load classes of objects
+     *
+     * @throws IOException if snapshot cannot be read
+     */
+    public void visitSnapshot(Path file, ClassLoader classLoader) throws IOException {
+        visitSnapshot(
+                file,
+                classLoader,
+                false
+        );
+    }
+
+    /**
+     * Load object graph from snapshot written by {@link
+     * Scanner#saveSnapshot(Path)} instead of visiting objects.
+     *
+     * @param file              the snapshot file
+     * @param classLoader       the class loader used to load classes of
+     *                          objects
+     * @param initializeClasses {@code true} to allow static initializers of
+     *                          classes to run when their objects are rebuilt
+     *
+     * @throws IOException if snapshot cannot be read
+     */
+    public void visitSnapshot(Path file, ClassLoader classLoader, boolean initializeClasses) throws IOException {
+        output.println("snapshot: " + StringEscapeUtils.escapeHtml4(file.toString()));
+        output.println("<div class='container'>");
+        long start = System.nanoTime();
+        Set<String> uninitializedClasses = GraphSnapshot.read(
+                file,
+                graph,
+                classLoader,
+                initializeClasses
+        );
+        metrics.record(
+                ScanMetrics.Phase.VISIT,
+                System.nanoTime() - start
+        );
+        if (!uninitializedClasses.isEmpty()) {
+            output.println("not rebuilt, classes are not initialized: "
+                           + StringEscapeUtils.escapeHtml4(String.join(
+                    ", ",
+                    uninitializedClasses
+            )));
+        }
+        updateMetrics(0);
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            Object object = graph.node(node);
+            if (object instanceof Class && graph.isVisited(node)) {
+                classes.add((Class<?>) object);
+            }
+        }
+        collectExposedMembers();
+        output.println("</div>");
+    }
+
+    /**
+     * Write object graph of current scan to snapshot file, so that it can be
+     * analyzed later with {@link Scanner#visitSnapshot(Path, ClassLoader)}.
+     * Must be called before {@link Scanner#release()}.
+     *
+     * @param file the snapshot file
+     *
+     * @throws IOException if snapshot cannot be written
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        GraphSnapshot.write(
+                graph,
+                file
+        );
+    }
+
     /**
      * Visit engine.
      */
     public void visitEngine() {
         output.println("loading system objects");
+        long start = System.nanoTime();
         EngineInstance.get().addSystemObjects((o, s) -> visitObject(
+                graph.writer(),
                 unwrap(o),
                 s
         ));
+        metrics.record(
+                ScanMetrics.Phase.VISIT,
+                System.nanoTime() - start
+        );
     }
 
-    private void visitObject(Object objectToVisit, String context) {
+    private void visitObject(ObjectGraph.Writer writer,
+                             Object objectToVisit,
+                             String context) {
         Class<?> visitingClass = objectToVisit.getClass();
         if (shouldIgnore(visitingClass)) {
             // Deliberately skip primitives and self
             return;
         }
-        if (visitedObjects.containsKey(objectToVisit)) {
+        if (graph.isVisited(objectToVisit)) {
             return;
         }
+        HeapDump dump = heapDump;
+        if (dump != null) {
+            dump.fill(objectToVisit);
+        }
         String scope = ScopeDetector.detectScope(visitingClass);
 
         Optional<String> detectedScope = context != null
@@ -268,602 +809,1164 @@ public class Scanner {
                                          : Optional.ofNullable(scope.isEmpty()
                                                                ? null
                                                                : scope);
-        ObjectData objectData = new ObjectData(detectedScope.orElse(null));
-        visitedObjects.put(
+        int node = writer.visit(
                 objectToVisit,
-                objectData
+                detectedScope.orElse(null),
+                ObjectGraph.NO_FINGERPRINT
         );
+        if (node == ObjectGraph.NONE) {
+            // Already claimed by another traversal thread
+            return;
+        }
+        if (sampler.isEnabled() && !sampler.sample(visitingClass)) {
+            // Skipped instances are marked visited without values and
+            // fingerprint, and must not be reused on next scan
+            return;
+        }
+        long fingerprint = incremental
+                           ? fingerprint(objectToVisit)
+                           : ObjectGraph.NO_FINGERPRINT;
+        if (fingerprint != ObjectGraph.NO_FINGERPRINT) {
+            writer.updateFingerprint(
+                    node,
+                    fingerprint
+            );
+        }
+        if (reuseValues(
+                writer,
+                node,
+                objectToVisit,
+                detectedScope.orElse(null),
+                fingerprint
+        )) {
+            return;
+        }
 
-        if (visitingClass.isArray()
-            && !shouldIgnore(visitingClass.getComponentType())) {
+        boolean isArray = classTraits
+                .get(visitingClass)
+                .getContainer() == ClassTraits.Container.ARRAY;
+        if (isArray && ((Object[]) objectToVisit).length >= 2 * CHUNK_SIZE) {
+            pushValues(
+                    writer,
+                    node,
+                    null,
+                    ReferenceType.ARRAY_ITEM,
+                    Arrays.spliterator((Object[]) objectToVisit),
+                    true
+            );
+        } else if (isArray) {
             for (Object value : (Object[]) objectToVisit) {
                 if (value != null) {
                     Object unwrapped = unwrap(value);
-                    ObjectValue objectValue = new ObjectValue(
+                    writer.edge(
+                            node,
+                            writer.node(unwrapped),
+                            null,
                             ReferenceType.ARRAY_ITEM,
-                            unwrapped
+                            !shouldIgnore(unwrapped.getClass()),
+                            shouldCascade(unwrapped.getClass())
                     );
-                    objectData.addValue(objectValue);
-                    if (!shouldIgnore(unwrapped.getClass())) {
-                        backreferences.computeIfAbsent(
-                                unwrapped,
-                                v -> new ArrayList<>()
-                        ).add(Reference.from(
-                                objectToVisit,
-                                objectValue,
-                                this
-                        ));
-                    }
-                    if (!visitedObjects.containsKey(unwrapped)
+                    if (!graph.isVisited(unwrapped)
                         && shouldCascade(unwrapped.getClass())) {
-                        scannerQueue.add(unwrapped);
+                        enqueue(unwrapped);
                     }
                 }
             }
         } else {
-            while (!Object.class.equals(visitingClass)) {
-                for (Field field : Unreflection.getDeclaredFields(visitingClass)) {
-                    if (!Modifier.isStatic(field.getModifiers())) {
-                        Set<PossibleValue> possibleFieldValues = Optional
-                                .ofNullable(computedPotentialValues.get(field
-                                                                                .getDeclaringClass()
-                                                                                .getName()))
-                                .map(map -> map.get(field.getName()))
-                                .orElse(new HashSet<>(Collections.emptySet()));
-
-                        try {
-                            field.setAccessible(true);
-                            Object value = field.get(objectToVisit);
-                            if (value != null
-                                || possibleFieldValues.isEmpty()) {
-                                processFieldValue(
-                                        objectToVisit,
-                                        objectData,
-                                        field,
-                                        value
-                                );
-                            }
-                            if (value != null) {
-                                possibleFieldValues.remove(new PossibleValue(
-                                        value.getClass(),
-                                        field.getDeclaringClass()
-                                ));
-                            }
-                        } catch (Throwable e) {
-                            // ignore and skip
-                        }
+            for (ClassLayout.FieldAccessor accessor : classLayouts
+                    .get(visitingClass)
+                    .getInstanceFields()) {
+                Field              field               = accessor.getField();
+                Set<PossibleValue> possibleFieldValues = accessor.getPossibleValues();
+                Object             value               = null;
 
-                        for (PossibleValue possibleValue : possibleFieldValues) {
-                            ObjectValue objectValue = new ObjectValue(
-                                    ReferenceType.POSSIBLE_VALUE,
-                                    field,
-                                    possibleValue
-                            );
-                            objectData.addValue(objectValue);
-                        }
+                try {
+                    value = accessor.get(objectToVisit);
+                    if (value != null || possibleFieldValues.isEmpty()) {
+                        processFieldValue(
+                                writer,
+                                node,
+                                field,
+                                value
+                        );
                     }
+                } catch (Throwable e) {
+                    // ignore and skip
                 }
 
-                visitingClass = visitingClass.getSuperclass();
+                writePossibleValues(
+                        writer,
+                        node,
+                        field,
+                        possibleFieldValues,
+                        value
+                );
             }
         }
     }
 
-    private static Object unwrap(Object proxy) {
-        return EngineInstance.get().unwrap(proxy);
+    private boolean reuseValues(ObjectGraph.Writer writer,
+                                int node,
+                                Object objectToVisit,
+                                @Nullable String scope,
+                                long fingerprint) {
+        ObjectGraph previous = previousGraph;
+        if (previous == null || fingerprint == ObjectGraph.NO_FINGERPRINT) {
+            return false;
+        }
+        int previousNode = previous.find(objectToVisit);
+        if (!previous.isVisited(previousNode)
+            || previous.fingerprint(previousNode) != fingerprint
+            || !Objects.equals(
+                previous.ownScope(previousNode),
+                scope
+        )) {
+            return false;
+        }
+        return writer.reuse(
+                previous,
+                previousNode,
+                node,
+                target -> {
+                    if (!graph.isVisited(target)) {
+                        enqueue(target);
+                    }
+                }
+        );
     }
 
-    private static boolean shouldIgnore(Class<?> clazz) {
-        return clazz.isPrimitive()
-               || clazz.isAnnotation()
-               || ClassLoader.class.isAssignableFrom(clazz)
-               || clazz.equals(Pattern.class)
-               || clazz.equals(String.class)
-               || clazz.equals(Void.class)
-               || clazz.equals(Boolean.class)
-               || clazz.equals(Character.class)
-               || clazz.equals(Byte.class)
-               || clazz.equals(Short.class)
-               || clazz.equals(Integer.class)
-               || clazz.equals(Long.class)
-               || clazz.equals(Float.class)
-               || clazz.equals(Double.class)
-               || clazz.getName().contains("CGLIB$$")
-               || clazz.getName().contains("$Proxy")
-               || (clazz.getPackage() != null && clazz
-                .getPackage()
-                .getName()
-                .startsWith(CodeQualityTestServer.class.getPackage().getName()))
-               || (clazz.getPackage() != null && clazz
-                .getPackage()
-                .equals(Field.class.getPackage()));
-    }
-
-    private static boolean shouldCascade(Class<?> clazz) {
-        return !clazz.isPrimitive() && !clazz.isArray() && !clazz.isEnum();
+    private long fingerprint(Object object) {
+        long fingerprint = System.identityHashCode(object.getClass());
+        if (object instanceof Object[]) {
+            for (Object item : (Object[]) object) {
+                fingerprint = fingerprint(
+                        fingerprint,
+                        System.identityHashCode(item)
+                );
+            }
+        } else if (!object.getClass().isArray()) {
+            for (ClassLayout.FieldAccessor accessor : classLayouts
+                    .get(object.getClass())
+                    .getInstanceFields()) {
+                Object value;
+                try {
+                    value = accessor.get(object);
+                } catch (Throwable e) {
+                    // skipped during traversal as well
+                    continue;
+                }
+                if (accessor.getField().getType().isPrimitive()) {
+                    // Boxed values are not identical between reads
+                    fingerprint = fingerprint(
+                            fingerprint,
+                            value.hashCode()
+                    );
+                } else if (value instanceof ThreadLocal) {
+                    // Values of thread locals depend on other threads
+                    return ObjectGraph.NO_FINGERPRINT;
+                } else {
+                    try {
+                        fingerprint = fingerprintContents(
+                                fingerprint(
+                                        fingerprint,
+                                        System.identityHashCode(value)
+                                ),
+                                value
+                        );
+                    } catch (RuntimeException e) {
+                        // Concurrently modified collection
+                        return ObjectGraph.NO_FINGERPRINT;
+                    }
+                }
+            }
+        }
+        return fingerprint == ObjectGraph.NO_FINGERPRINT ? 1 : fingerprint;
     }
 
-    @SuppressWarnings("unchecked")
-    private void processFieldValue(Object objectToVisit,
-                                   ObjectData objectData,
-                                   Field field,
-                                   Object value) {
-        boolean cascade = true;
-        if (value != null) {
-            Class<?> valueClass = value.getClass();
-            if (valueClass.isArray()
-                && !shouldIgnore(valueClass.getComponentType())) {
-                for (Object o : (Object[]) value) {
-                    pushValue(
-                            objectToVisit,
-                            objectData,
+    private static long fingerprintContents(long fingerprint, Object value) {
+        long result = fingerprint;
+        if (value instanceof Object[]) {
+            for (Object item : (Object[]) value) {
+                result = fingerprint(
+                        result,
+                        System.identityHashCode(item)
+                );
+            }
+        } else if (value instanceof Optional) {
+            result = fingerprint(
+                    result,
+                    System.identityHashCode(((Optional<?>) value).orElse(null))
+            );
+        } else if (value instanceof java.lang.ref.Reference) {
+            result = fingerprint(
+                    result,
+                    System.identityHashCode(((java.lang.ref.Reference<?>) value).get())
+            );
+        } else if (value instanceof AtomicReference) {
+            result = fingerprint(
+                    result,
+                    System.identityHashCode(((AtomicReference<?>) value).get())
+            );
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                result = fingerprint(
+                        result,
+                        System.identityHashCode(item)
+                );
+            }
+        } else if (value instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                result = fingerprint(
+                        fingerprint(
+                                result,
+                                System.identityHashCode(e.getKey())
+                        ),
+                        System.identityHashCode(e.getValue())
+                );
+            }
+        }
+        return result;
+    }
+
+    private static long fingerprint(long fingerprint, int hash) {
+        return (Long.rotateLeft(
+                fingerprint,
+                27
+        ) ^ hash) * 0x9E3779B97F4A7C15L;
+    }
+
+    private Object unwrap(Object proxy) {
+        if (proxy == null || !classTraits.get(proxy.getClass()).isProxy()) {
+            return proxy;
+        }
+        return EngineInstance.get().unwrap(proxy);
+    }
+
+    private boolean shouldIgnore(Class<?> clazz) {
+        return classTraits
+                .get(clazz)
+                .isIgnored();
+    }
+
+    private boolean shouldCascade(Class<?> clazz) {
+        return classTraits
+                .get(clazz)
+                .isCascaded();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void processFieldValue(ObjectGraph.Writer writer,
+                                   int node,
+                                   Field field,
+                                   Object value) {
+        ClassTraits.Container container = value == null
+                                          ? ClassTraits.Container.NONE
+                                          : classTraits
+                                                  .get(value.getClass())
+                                                  .getContainer();
+        switch (container) {
+            case ARRAY:
+                if (((Object[]) value).length >= 2 * CHUNK_SIZE) {
+                    pushValues(
+                            writer,
+                            node,
                             field,
                             ReferenceType.ARRAY_ITEM,
-                            o,
-                            true
+                            Arrays.spliterator((Object[]) value),
+                            false
                     );
+                } else {
+                    for (Object o : (Object[]) value) {
+                        pushValue(
+                                writer,
+                                node,
+                                field,
+                                ReferenceType.ARRAY_ITEM,
+                                o,
+                                true
+                        );
+                    }
                 }
-                cascade = false;
-            } else if (value instanceof Optional) {
+                break;
+            case OPTIONAL:
                 ((Optional<?>) value).ifPresent(o -> {
                     pushValue(
-                            objectToVisit,
-                            objectData,
+                            writer,
+                            node,
                             field,
                             ReferenceType.OPTIONAL_VALUE,
                             o,
                             true
                     );
                 });
-                cascade = false;
-            } else if (value instanceof java.lang.ref.Reference) {
+                break;
+            case REFERENCE:
                 pushValue(
-                        objectToVisit,
-                        objectData,
+                        writer,
+                        node,
                         field,
                         ReferenceType.REFERENCE_VALUE,
                         ((java.lang.ref.Reference<?>) value).get(),
                         true
                 );
-                cascade = false;
-            } else if (value instanceof AtomicReference) {
+                break;
+            case ATOMIC_REFERENCE:
                 pushValue(
-                        objectToVisit,
-                        objectData,
+                        writer,
+                        node,
                         field,
                         ReferenceType.ATOMIC_REFERENCE_VALUE,
                         ((AtomicReference<?>) value).get(),
                         true
                 );
-                cascade = false;
-            } else if (value instanceof Collection) {
-                List<Object> values = new ArrayList<>((Collection<?>) value);
-                for (Object o : values) {
-                    pushValue(
-                            objectToVisit,
-                            objectData,
+                break;
+            case COLLECTION:
+                if (((Collection<?>) value).size() >= 2 * CHUNK_SIZE) {
+                    pushValues(
+                            writer,
+                            node,
                             field,
                             ReferenceType.COLLECTION_ITEM,
-                            o,
-                            true
+                            ((Collection<?>) value).spliterator(),
+                            false
                     );
+                } else {
+                    List<Object> values = new ArrayList<>((Collection<?>) value);
+                    for (Object o : values) {
+                        pushValue(
+                                writer,
+                                node,
+                                field,
+                                ReferenceType.COLLECTION_ITEM,
+                                o,
+                                true
+                        );
+                    }
                 }
-                cascade = false;
-            } else if (value instanceof ThreadLocal) {
+                break;
+            case THREAD_LOCAL:
                 ThreadLocal<Object> tlValue = (ThreadLocal<Object>) value;
                 pushThreadLocalValues(
-                        objectToVisit,
-                        objectData,
+                        writer,
+                        node,
                         field,
                         tlValue
                 );
-                cascade = false;
-            } else if (value instanceof Map) {
-                List<? extends Map.Entry<?, ?>> entries = new ArrayList<>(((Map<?, ?>) value)
-                                                                                  .entrySet());
-                for (Map.Entry<?, ?> e : entries) {
-                    ObjectValue keyValue = pushValue(
-                            objectToVisit,
-                            objectData,
+                break;
+            case MAP:
+                if (((Map<?, ?>) value).size() >= 2 * CHUNK_SIZE) {
+                    pushEntries(
+                            writer,
+                            node,
                             field,
-                            ReferenceType.MAP_KEY,
-                            e.getKey(),
-                            true
-                    );
-                    pushValue(
-                            objectToVisit,
-                            objectData,
-                            field,
-                            ReferenceType.MAP_VALUE,
-                            e.getValue(),
-                            true
+                            ((Map<?, ?>) value)
+                                    .entrySet()
+                                    .spliterator()
                     );
-                    if (e.getValue() != null && !shouldIgnore(e
-                                                                      .getValue()
-                                                                      .getClass())) {
-                        backreferences.computeIfAbsent(
-                                e.getValue(),
-                                v -> new ArrayList<>()
-                        ).add(Reference.from(
+                } else {
+                    List<? extends Map.Entry<?, ?>> entries = new ArrayList<>(((Map<?, ?>) value)
+                                                                                      .entrySet());
+                    for (Map.Entry<?, ?> e : entries) {
+                        int keyValue = pushValue(
+                                writer,
+                                node,
+                                field,
+                                ReferenceType.MAP_KEY,
                                 e.getKey(),
-                                keyValue,
-                                this
-                        ));
+                                true
+                        );
+                        pushValue(
+                                writer,
+                                node,
+                                field,
+                                ReferenceType.MAP_VALUE,
+                                e.getValue(),
+                                true
+                        );
+                        if (e.getValue() != null && !shouldIgnore(e
+                                                                          .getValue()
+                                                                          .getClass())) {
+                            writer.backreference(
+                                    writer.node(e.getValue()),
+                                    writer.node(e.getKey()),
+                                    keyValue
+                            );
+                        }
                     }
-
                 }
-                cascade = false;
-            }
+                break;
+            default:
+                break;
         }
         pushValue(
-                objectToVisit,
-                objectData,
+                writer,
+                node,
                 field,
                 ReferenceType.ACTUAL_VALUE,
                 value,
-                cascade
+                container == ClassTraits.Container.NONE
         );
     }
 
-    private ObjectValue pushValue(Object objectToVisit,
-                                  ObjectData objectData,
-                                  Field field,
-                                  ReferenceType name,
-                                  Object value,
-                                  boolean cascade) {
-        Object unwrapped = unwrap(value);
-        ObjectValue objectValue = new ObjectValue(
-                name,
-                field,
-                unwrapped
-        );
-        objectData.addValue(objectValue);
-        if (unwrapped != null) {
-            if (!shouldIgnore(unwrapped.getClass())) {
-                backreferences.computeIfAbsent(
-                        unwrapped,
-                        v -> new ArrayList<>()
-                ).add(Reference.from(
-                        objectToVisit,
-                        objectValue,
-                        this
-                ));
-            }
-            if (cascade
-                && !visitedObjects.containsKey(unwrapped)
-                && shouldCascade(unwrapped.getClass())) {
-                scannerQueue.add(unwrapped);
+    private void pushValues(ObjectGraph.Writer writer,
+                            int node,
+                            @Nullable Field field,
+                            ReferenceType name,
+                            Spliterator<?> values,
+                            boolean skipNulls) {
+        for (ValueChunk chunk : runChunks(
+                values,
+                false,
+                skipNulls
+        )) {
+            for (int i = 0; i < chunk.targets.size(); i++) {
+                pushEdge(
+                        writer,
+                        node,
+                        field,
+                        name,
+                        chunk.targets.get(i),
+                        chunk.flags.get(i)
+                );
             }
         }
-        return objectValue;
     }
 
-    private void pushThreadLocalValues(Object objectToVisit,
-                                       ObjectData objectData,
-                                       Field field,
-                                       ThreadLocal<Object> value) {
-        // Get the root ThreadGroup
-        ThreadGroup group = Thread.currentThread().getThreadGroup();
-        while (group.getParent() != null) {
-            group = group.getParent();
-        }
-        // Collect all Thread instances out there
-        List<Thread>       allThreads = new ArrayList<>();
-        Queue<ThreadGroup> queue      = new ArrayDeque<>();
-        queue.add(group);
-
-        while (queue.peek() != null) {
-            ThreadGroup poll = queue.poll();
-            synchronized (poll) {
-                int ngroups = readDeclaredField(
-                        poll,
-                        "ngroups"
-                );
-                ThreadGroup[] groups = readDeclaredField(
-                        poll,
-                        "groups"
-                );
-                int nthreads = readDeclaredField(
-                        poll,
-                        "nthreads"
+    private void pushEntries(ObjectGraph.Writer writer,
+                             int node,
+                             Field field,
+                             Spliterator<? extends Map.Entry<?, ?>> entries) {
+        for (ValueChunk chunk : runChunks(
+                entries,
+                true,
+                false
+        )) {
+            for (int i = 0; i < chunk.targets.size(); i += 2) {
+                int keyValue = pushEdge(
+                        writer,
+                        node,
+                        field,
+                        ReferenceType.MAP_KEY,
+                        chunk.targets.get(i),
+                        chunk.flags.get(i)
                 );
-                Thread[] threads = readDeclaredField(
-                        poll,
-                        "threads"
+                pushEdge(
+                        writer,
+                        node,
+                        field,
+                        ReferenceType.MAP_VALUE,
+                        chunk.targets.get(i + 1),
+                        chunk.flags.get(i + 1)
                 );
-                if (groups != null && ngroups > 0) {
-                    queue.addAll(Arrays.asList(groups).subList(
-                            0,
-                            ngroups
-                    ));
-                }
-                if (threads != null && nthreads > 0) {
-                    allThreads.addAll(Arrays.asList(threads).subList(
-                            0,
-                            nthreads
-                    ));
+                if (chunk.backreferences.get(i + 1) != ObjectGraph.NONE) {
+                    writer.backreference(
+                            chunk.backreferences.get(i + 1),
+                            chunk.backreferences.get(i),
+                            keyValue
+                    );
                 }
             }
         }
+    }
 
-        // Get the ThreadLocalMap for each Thread
-        for (Thread thread : allThreads) {
-            Object threadLocals = readDeclaredField(
-                    thread,
-                    "threadLocals"
-            );
-            if (threadLocals != null) {
-                Object entry = getThreadLocalEntries(
-                        threadLocals,
-                        value
+    private static int pushEdge(ObjectGraph.Writer writer,
+                                int node,
+                                @Nullable Field field,
+                                ReferenceType name,
+                                int target,
+                                int flags) {
+        return writer.edge(
+                node,
+                target,
+                field,
+                name,
+                (flags & ValueChunk.BACKREFERENCED) != 0,
+                (flags & ValueChunk.CASCADED) != 0
+        );
+    }
+
+    private List<ValueChunk> runChunks(Spliterator<?> values,
+                                       boolean entries,
+                                       boolean skipNulls) {
+        // Chunks are split without copying and keep encounter order, so that
+        // edges are added in the same order as when iterating sequentially
+        List<ValueChunk> chunks = new ArrayList<>();
+        split(
+                values,
+                chunk -> chunks.add(new ValueChunk(
+                        chunk,
+                        entries,
+                        skipNulls
+                ))
+        );
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ForkJoinWorkerThread
+            && ((ForkJoinWorkerThread) thread).getPool() == traversalPool) {
+            ForkJoinTask.invokeAll(chunks);
+        } else {
+            chunks.forEach(ValueChunk::compute);
+        }
+        return chunks;
+    }
+
+    private static void split(Spliterator<?> values,
+                              Consumer<Spliterator<?>> chunks) {
+        if (values.estimateSize() > CHUNK_SIZE) {
+            Spliterator<?> prefix = values.trySplit();
+            if (prefix != null) {
+                split(
+                        prefix,
+                        chunks
                 );
-                if (entry != null) {
-                    Object threadLocalValue = readDeclaredField(
-                            entry,
-                            "value"
-                    );
-                    if (threadLocalValue != value) {
-                        if (thread.getState() == Thread.State.TERMINATED) {
-                            pushValue(
-                                    objectToVisit,
-                                    objectData,
-                                    field,
-                                    ReferenceType.TERMINATED_THREAD_LOCAL,
-                                    threadLocalValue,
-                                    true
-                            );
-                        } else if (thread.getState() == Thread.State.WAITING) {
-                            pushValue(
-                                    objectToVisit,
-                                    objectData,
-                                    field,
-                                    ReferenceType.WAITING_THREAD_LOCAL,
-                                    threadLocalValue,
-                                    true
-                            );
-                        } else {
-                            pushValue(
-                                    objectToVisit,
-                                    objectData,
-                                    field,
-                                    ReferenceType.THREAD_LOCAL,
-                                    threadLocalValue,
-                                    true
-                            );
-                        }
-                    }
-                }
+                split(
+                        values,
+                        chunks
+                );
+                return;
             }
         }
+        chunks.accept(values);
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> T readDeclaredField(Object instance, String field) {
-        Class<?> visitingClass = instance.getClass();
+    private int pushValue(ObjectGraph.Writer writer,
+                          int node,
+                          Field field,
+                          ReferenceType name,
+                          Object value,
+                          boolean cascade) {
+        Object  unwrapped = unwrap(value);
+        boolean cascaded  = unwrapped != null
+                            && cascade
+                            && shouldCascade(unwrapped.getClass());
+        int edge = writer.edge(
+                node,
+                writer.node(unwrapped),
+                field,
+                name,
+                unwrapped != null && !shouldIgnore(unwrapped.getClass()),
+                cascaded
+        );
+        if (cascaded && !graph.isVisited(unwrapped)) {
+            enqueue(unwrapped);
+        }
+        return edge;
+    }
 
-        while (visitingClass != null && !Object.class.equals(visitingClass)) {
-            Field declaredField = null;
-            try {
-                declaredField = Unreflection.getDeclaredField(
-                        visitingClass,
-                        field
-                );
-            } catch (NoSuchFieldException e) {
-                // ignore
-            }
-            if (declaredField != null) {
-                declaredField.setAccessible(true);
-                try {
-                    return (T) declaredField.get(instance);
-                } catch (IllegalAccessException e) {
-                    throw new IllegalStateException(
-                            "Unable to read ThreadGroup." + field,
-                            e
+    private void enqueue(Object objectToVisit) {
+        if (objectToVisit instanceof Class) {
+            analyzeInBackground((Class<?>) objectToVisit);
+        }
+        ForkJoinPool pool   = traversalPool;
+        Thread       thread = Thread.currentThread();
+        if (pool == null) {
+            scannerQueue.add(objectToVisit);
+        } else if (thread instanceof ForkJoinWorkerThread
+                   && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+            // Push to the local work-stealing deque of current worker
+            new VisitTask(objectToVisit).fork();
+        } else {
+            // Request thread may help executing tasks while awaiting quiescence
+            pool.execute(new VisitTask(objectToVisit));
+        }
+    }
+
+    private void pushThreadLocalValues(ObjectGraph.Writer writer,
+                                       int node,
+                                       Field field,
+                                       ThreadLocal<Object> value) {
+        for (ThreadLocalIndex.Entry entry : threadLocalIndex().get(value)) {
+            Object threadLocalValue = entry.getValue();
+            if (threadLocalValue != value) {
+                if (entry.getState() == Thread.State.TERMINATED) {
+                    pushValue(
+                            writer,
+                            node,
+                            field,
+                            ReferenceType.TERMINATED_THREAD_LOCAL,
+                            threadLocalValue,
+                            true
+                    );
+                } else if (entry.getState() == Thread.State.WAITING) {
+                    pushValue(
+                            writer,
+                            node,
+                            field,
+                            ReferenceType.WAITING_THREAD_LOCAL,
+                            threadLocalValue,
+                            true
+                    );
+                } else {
+                    pushValue(
+                            writer,
+                            node,
+                            field,
+                            ReferenceType.THREAD_LOCAL,
+                            threadLocalValue,
+                            true
                     );
                 }
             }
-            visitingClass = visitingClass.getSuperclass();
         }
-        throw new IllegalStateException("Cannot find ThreadGroup." + field);
     }
 
-    @SuppressWarnings("unchecked")
-    @Nullable
-    private static <T> T getThreadLocalEntries(Object instance,
-                                               ThreadLocal<?> threadLocal) {
+    private ThreadLocalIndex threadLocalIndex() {
+        ThreadLocalIndex index = threadLocalIndex;
+        if (index == null) {
+            synchronized (threadLocalIndexLock) {
+                index = threadLocalIndex;
+                if (index == null) {
+                    index            = new ThreadLocalIndex();
+                    threadLocalIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private void processQueue() {
+        output.println("<div class='container'>");
         try {
-            Method declaredMethod = Unreflection.getDeclaredMethod(
-                    instance.getClass(),
-                    "getEntry",
-                    ThreadLocal.class
+            long start = System.nanoTime();
+            if (parallelism > 1) {
+                traverseInParallel();
+            } else {
+                traverse();
+            }
+            long visited = System.nanoTime();
+            metrics.record(
+                    ScanMetrics.Phase.VISIT,
+                    visited - start
             );
-            declaredMethod.setAccessible(true);
-            return (T) declaredMethod.invoke(
-                    instance,
-                    threadLocal
+            graph.freeze();
+            updateMetrics(0);
+            if (graph.isSpilled()) {
+                output.println("object graph exceeds memory budget, using disk storage");
+            }
+            propagateScopes();
+            long propagated = System.nanoTime();
+            metrics.record(
+                    ScanMetrics.Phase.PROPAGATION,
+                    propagated - visited
             );
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            return null;
+            collectExposedMembers();
+        } finally {
+            shutdownAnalysis();
         }
+        output.println("</div>");
     }
 
-    private void processQueue() {
-        output.println("<div class='container'>");
-        long   stamp          = System.nanoTime() - DISPLAY_INTERVAL;
-        int    before         = visitedObjects.size();
-        int    prevCandidates = -1;
-        Object objectToVisit  = scannerQueue.poll();
+    private void collectExposedMembers() {
+        long     start    = System.nanoTime();
+        awaitAnalysis();
+        Throttle throttle = newThrottle();
+        for (Class<?> aClass : classes) {
+            checkCancelled();
+            if (new ExposedMembers(aClass).collect()) {
+                throttle.checkpoint(System.nanoTime());
+            }
+        }
+        metrics.record(
+                ScanMetrics.Phase.EXPOSED_MEMBERS,
+                System.nanoTime() - start
+        );
+    }
+
+    private void updateMetrics(long queued) {
+        metrics.update(
+                graph.visitedCount(),
+                queued,
+                graph.nodeCount(),
+                graph.estimatedHeapBytes()
+        );
+    }
+
+    private void traverse() {
+        Throttle throttle      = newThrottle();
+        long     stamp         = System.nanoTime() - DISPLAY_INTERVAL;
+        int      before        = graph.visitedCount();
+        Object   objectToVisit = scannerQueue.poll();
         while (objectToVisit != null) {
             long now  = System.nanoTime();
             long diff = now - stamp;
             if (diff >= DISPLAY_INTERVAL) {
                 output.println("<div class='frame'>candidates: " + (
-                        visitedObjects.size()
+                        graph.visitedCount()
                         - before) + " (" + scannerQueue.size() + ")</div>");
+                updateMetrics(scannerQueue.size());
                 stamp = now;
             }
-            if (objectToVisit instanceof Class) {
-                visitClass((Class<?>) objectToVisit);
-            } else {
-                if (!visitedObjects.containsKey(objectToVisit.getClass())) {
-                    visitClass(objectToVisit.getClass());
-                }
-                visitObject(
-                        objectToVisit,
-                        null
-                );
-            }
+            throttle.checkpoint(now);
+            checkCancelled();
+            visitQueued(objectToVisit);
             objectToVisit = scannerQueue.poll();
         }
-        propagateScopes();
-        for (Class<?> aClass : classes) {
-            new ExposedMembers(aClass).collect();
+    }
+
+    /**
+     * Schedule bytecode analysis of discovered class, so that possible values
+     * and class index are ready by the time traversal or {@link
+     * ExposedMembers} need them. Results are cached per class; a thread
+     * needing results before analysis is finished computes them as well.
+     */
+    private void analyzeInBackground(Class<?> clazz) {
+        if (parallelism == 1 || shouldIgnore(clazz) || !submittedClasses.add(clazz)) {
+            return;
+        }
+        analysisPool().execute(() -> {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof ScannerThread) {
+                ((ScannerThread) thread).throttle.checkpoint(System.nanoTime());
+            }
+            try {
+                getPossibleValues(clazz);
+                ClassIndex.of(clazz);
+            } catch (Throwable e) {
+                // ignore, failure is repeated on the thread needing results
+            }
+        });
+    }
+
+    private synchronized ForkJoinPool analysisPool() {
+        if (analysisPool == null) {
+            analysisPool = newPool("cqt-analyzer-");
+        }
+        return analysisPool;
+    }
+
+    private void awaitAnalysis() {
+        ForkJoinPool pool;
+        synchronized (this) {
+            pool = analysisPool;
+        }
+        while (pool != null && !awaitQuiescence(pool)) {
+            checkCancelled();
+        }
+    }
+
+    private void shutdownAnalysis() {
+        synchronized (this) {
+            if (analysisPool != null) {
+                analysisPool.shutdownNow();
+                analysisPool = null;
+            }
+        }
+        submittedClasses.clear();
+    }
+
+    private ForkJoinPool newPool(String name) {
+        ClassLoader contextClassLoader = Thread
+                .currentThread()
+                .getContextClassLoader();
+        int priority = Thread.currentThread().getPriority();
+        return new ForkJoinPool(
+                parallelism,
+                p -> {
+                    ForkJoinWorkerThread thread = new ScannerThread(p);
+                    thread.setName(name + thread.getPoolIndex());
+                    thread.setContextClassLoader(contextClassLoader);
+                    thread.setPriority(priority);
+                    return thread;
+                },
+                null,
+                false
+        );
+    }
+
+    private void traverseInParallel() {
+        ForkJoinPool pool = newPool("cqt-scanner-");
+        traversalFailure.set(null);
+        traversalPool = pool;
+        try {
+            int    before        = graph.visitedCount();
+            Object objectToVisit = scannerQueue.poll();
+            while (objectToVisit != null) {
+                pool.execute(new VisitTask(objectToVisit));
+                objectToVisit = scannerQueue.poll();
+            }
+            do {
+                long queued = pool.getQueuedTaskCount()
+                              + pool.getQueuedSubmissionCount();
+                output.println("<div class='frame'>candidates: " + (
+                        graph.visitedCount()
+                        - before) + " (" + queued + ")</div>");
+                updateMetrics(queued);
+            } while (!awaitQuiescence(pool) && !cancelled);
+        } finally {
+            traversalPool = null;
+            pool.shutdownNow();
+        }
+
+        checkCancelled();
+        Throwable failure = traversalFailure.getAndSet(null);
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(
+                    "Object traversal failed",
+                    failure
+            );
+        }
+    }
+
+    private boolean awaitQuiescence(ForkJoinPool pool) {
+        if (dutyCycle < 1) {
+            // Do not help executing tasks on unthrottled calling thread
+            LockSupport.parkNanos(DISPLAY_INTERVAL);
+            return pool.isQuiescent();
+        }
+        return pool.awaitQuiescence(
+                DISPLAY_INTERVAL,
+                TimeUnit.NANOSECONDS
+        );
+    }
+
+    private void visitQueued(Object objectToVisit) {
+        ObjectGraph.Writer writer = graph.writer();
+        if (objectToVisit instanceof Class) {
+            visitClass(
+                    writer,
+                    (Class<?>) objectToVisit
+            );
+        } else {
+            if (!graph.isVisited(objectToVisit.getClass())) {
+                visitClass(
+                        writer,
+                        objectToVisit.getClass()
+                );
+            }
+            visitObject(
+                    writer,
+                    objectToVisit,
+                    null
+            );
         }
-        output.println("</div>");
     }
 
     private void propagateScopes() {
-        Queue<Object>              propagationQueue = new ArrayDeque<>();
-        Map<String, AtomicInteger> scopeStats       = new LinkedHashMap<>();
-        visitedObjects
-                .entrySet()
-                .stream()
-                .filter(entry -> entry.getKey() != null
-                                 && entry.getValue().getEffectiveScope()
-                                    != null)
-                .forEach(entry -> {
-                    scopeStats.computeIfAbsent(
-                            entry.getValue().getEffectiveScope(),
-                            s -> new AtomicInteger(0)
-                    ).incrementAndGet();
-                    propagationQueue.add(entry.getKey());
-                });
-        long   stamp         = System.nanoTime();
-        Object objectToVisit = propagationQueue.poll();
-        while (objectToVisit != null) {
-            long now  = System.nanoTime();
-            long diff = now - stamp;
-            if (diff >= DISPLAY_INTERVAL) {
-                output.print("<div class='frame'>");
-                for (Map.Entry<String, AtomicInteger> stat : scopeStats.entrySet()) {
-                    output.println(stat.getKey() + ": " + stat
-                            .getValue()
-                            .get());
+        ObjectGraph previous = previousGraph;
+        BitSet      affected = previous == null
+                               ? null
+                               : findAffectedNodes(previous);
+
+        // Scopes are ranked by Engine#getScopeOrder(). Rank 0 stands for
+        // instance and any unlisted scope, which are never propagated.
+        List<String>         scopeOrder = EngineInstance.get().getScopeOrder();
+        Map<String, Integer> scopeRanks = new HashMap<>();
+        String[]             rankScopes = new String[scopeOrder.size() + 1];
+        rankScopes[0] = "instance";
+        for (int rank = 1; rank <= scopeOrder.size(); rank++) {
+            rankScopes[rank] = scopeOrder.get(rank - 1);
+            scopeRanks.putIfAbsent(
+                    rankScopes[rank],
+                    rank
+            );
+        }
+
+        ScopePropagation propagation = new ScopePropagation(
+                graph.nodeCount(),
+                rankScopes
+        );
+        IntList frontier = new IntList();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (graph.isVisited(node)) {
+                if (affected != null && !affected.get(node)) {
+                    // Scopes of unaffected nodes are the same as in previous scan
+                    graph.setInheritedScope(
+                            node,
+                            previous.inheritedScope(graph.previousNode(node))
+                    );
+                }
+                String scope = getData(node).getEffectiveScope();
+                propagation.add(
+                        node,
+                        scope,
+                        scopeRanks.getOrDefault(
+                                scope,
+                                0
+                        )
+                );
+                if (affected == null
+                    || affected.get(node)
+                    || hasEdgesTo(
+                        node,
+                        affected
+                )) {
+                    frontier.add(node);
+                    propagation.queued.set(node);
                 }
-                output.println("</div>");
-                stamp = now;
             }
-            ObjectData objectData = visitedObjects.get(objectToVisit);
-            if (!objectToVisit
-                    .getClass()
-                    .getName()
-                    .contains("$Lambda")) { // Do not propagate through lambdas
-                for (ObjectValue objectValue : objectData.getValues()) {
-                    if (objectValue
-                        != null) { // Don't propagate scope to values
-                        ObjectData other = visitedObjects.get(objectValue.getValue());
-                        if (other != null && EngineInstance
-                                .get()
-                                .shouldPropagateScope(
-                                        other.getEffectiveScope(),
-                                        objectData.getEffectiveScope()
-                                ) && !other.hasOwnScope()) {
-                            scopeStats.computeIfAbsent(
-                                    other.getEffectiveScope(),
-                                    s -> new AtomicInteger(0)
-                            ).decrementAndGet();
-                            other.setInheritedScope(objectData.getEffectiveScope());
-                            scopeStats.computeIfAbsent(
-                                    other.getEffectiveScope(),
-                                    s -> new AtomicInteger(0)
-                            ).incrementAndGet();
-                            if (objectValue.getValue() != null) {
-                                propagationQueue.add(objectValue.getValue());
-                            }
-                        }
-                    }
+        }
+        propagation.prepareStats();
+
+        // Level-synchronous breadth-first propagation of max rank
+        ForkJoinPool pool  = parallelism > 1 ? newPool("cqt-scanner-") : null;
+        long         stamp = System.nanoTime();
+        try {
+            Throttle throttle = newThrottle();
+            while (frontier.size() > 0) {
+                checkCancelled();
+                if (pool == null || frontier.size() < PROPAGATION_CHUNK_SIZE) {
+                    IntList next = new IntList();
+                    propagation.propagate(
+                            frontier,
+                            0,
+                            frontier.size(),
+                            next,
+                            throttle
+                    );
+                    frontier = next;
+                } else {
+                    frontier = pool.invoke(new PropagationTask(
+                            propagation,
+                            frontier,
+                            0,
+                            frontier.size()
+                    ));
+                }
+                long now = System.nanoTime();
+                if (now - stamp >= DISPLAY_INTERVAL) {
+                    output.print("<div class='frame'>");
+                    propagation.printStats(output);
+                    output.println("</div>");
+                    stamp = now;
                 }
             }
-            objectToVisit = propagationQueue.poll();
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
         }
+        propagation.apply();
+
         output.print("<div class='frame'>");
-        for (Map.Entry<String, AtomicInteger> stat : scopeStats.entrySet()) {
-            output.println(stat.getKey() + ": " + stat.getValue().get());
-        }
+        propagation.printStats(output);
         output.println();
         output.println("analyzing...");
         output.println("</div>");
     }
 
-    private void visitClass(Class<?> objectToVisit) {
+    private BitSet findAffectedNodes(ObjectGraph previous) {
+        // Nodes visited from scratch, and their values in previous scan
+        BitSet  affected         = new BitSet(graph.nodeCount());
+        IntList frontier         = new IntList();
+        BitSet  previousAffected = new BitSet(previous.nodeCount());
+        IntList previousFrontier = new IntList();
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            if (graph.isVisited(node) && graph.previousNode(node) == ObjectGraph.NONE) {
+                markAffected(
+                        affected,
+                        frontier,
+                        node
+                );
+                int previousNode = previous.find(graph.node(node));
+                if (previous.isVisited(previousNode)) {
+                    markAffected(
+                            previousAffected,
+                            previousFrontier,
+                            previousNode
+                    );
+                }
+            }
+        }
+        // Nodes which are no longer reachable
+        for (int previousNode = 0; previousNode < previous.nodeCount(); previousNode++) {
+            if (previous.isVisited(previousNode)
+                && !graph.isVisited(graph.find(previous.node(previousNode)))) {
+                markAffected(
+                        previousAffected,
+                        previousFrontier,
+                        previousNode
+                );
+            }
+        }
+        markReachable(
+                previous,
+                previousAffected,
+                previousFrontier
+        );
+        for (int previousNode = previousAffected.nextSetBit(0);
+             previousNode >= 0;
+             previousNode = previousAffected.nextSetBit(previousNode + 1)) {
+            int node = graph.find(previous.node(previousNode));
+            if (graph.isVisited(node)) {
+                markAffected(
+                        affected,
+                        frontier,
+                        node
+                );
+            }
+        }
+        markReachable(
+                graph,
+                affected,
+                frontier
+        );
+        return affected;
+    }
+
+    private static void markAffected(BitSet affected,
+                                     IntList frontier,
+                                     int node) {
+        if (!affected.get(node)) {
+            affected.set(node);
+            frontier.add(node);
+        }
+    }
+
+    private static void markReachable(ObjectGraph objectGraph,
+                                      BitSet affected,
+                                      IntList frontier) {
+        for (int head = 0; head < frontier.size(); head++) {
+            int node = frontier.get(head);
+            int end  = objectGraph.forwardEnd(node);
+            for (int position = objectGraph.forwardStart(node); position < end; position++) {
+                int target = objectGraph.edgeTarget(objectGraph.forwardEdge(position));
+                if (objectGraph.isVisited(target)) {
+                    markAffected(
+                            affected,
+                            frontier,
+                            target
+                    );
+                }
+            }
+        }
+    }
+
+    private boolean hasEdgesTo(int node, BitSet nodes) {
+        int end = graph.forwardEnd(node);
+        for (int position = graph.forwardStart(node); position < end; position++) {
+            int target = graph.edgeTarget(graph.forwardEdge(position));
+            if (target != ObjectGraph.NONE && nodes.get(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ObjectData getData(int node) {
+        return new ObjectData(
+                graph,
+                node
+        );
+    }
+
+    private void visitClass(ObjectGraph.Writer writer, Class<?> objectToVisit) {
         if (shouldIgnore(objectToVisit)) {
             // Deliberately skip primitives and self
             return;
         }
 
+        int node = writer.visit(
+                objectToVisit,
+                "static",
+                ObjectGraph.NO_FINGERPRINT
+        );
+        if (node == ObjectGraph.NONE) {
+            // Already claimed by another traversal thread
+            return;
+        }
+
         classes.add(objectToVisit);
 
-        String className = objectToVisit.getName();
-        computedPotentialValues.computeIfAbsent(
-                className,
-                cn -> new PossibleValues(objectToVisit).findPossibleValues()
-        );
+        Map<String, Set<PossibleValue>> declaredPossibleValues = getPossibleValues(objectToVisit);
 
         if (objectToVisit.getSuperclass() != null
-            && !visitedObjects.containsKey(objectToVisit.getSuperclass())
+            && !graph.isVisited(objectToVisit.getSuperclass())
             && !shouldIgnore(objectToVisit.getSuperclass())) {
-            scannerQueue.add(objectToVisit.getSuperclass());
+            enqueue(objectToVisit.getSuperclass());
         }
 
-        ObjectData objectData = new ObjectData("static");
-        visitedObjects.put(
-                objectToVisit,
-                objectData
-        );
-
         for (Field field : Unreflection.getDeclaredFields(objectToVisit)) {
             if (Modifier.isStatic(field.getModifiers()) && !(field.isSynthetic()
                                                              && "$assertionsDisabled"
                                                                      .equals(field.getName()))) {
-                Set<PossibleValue> possibleFieldValues = Optional
-                        .ofNullable(computedPotentialValues.get(field
-                                                                        .getDeclaringClass()
-                                                                        .getName()))
-                        .map(map -> map.get(field.getName()))
-                        .orElse(new HashSet<>(Collections.emptySet()));
+                Set<PossibleValue> possibleFieldValues = declaredPossibleValues.getOrDefault(
+                        field.getName(),
+                        Collections.emptySet()
+                );
+                Object             value               = null;
                 try {
-                    field.setAccessible(true);
-                    Object value = field.get(null);
+                    HeapDump dump = heapDump;
+                    if (dump != null) {
+                        value = dump.getStaticValue(field);
+                    } else {
+                        field.setAccessible(true);
+                        value = field.get(null);
+                    }
                     if (value != null || possibleFieldValues.isEmpty()) {
                         processFieldValue(
-                                objectToVisit,
-                                objectData,
+                                writer,
+                                node,
                                 field,
                                 value
                         );
                     }
-                    if (value != null) {
-                        possibleFieldValues.remove(new PossibleValue(
-                                value.getClass(),
-                                field.getDeclaringClass()
-                        ));
-                    }
                 } catch (Throwable e) {
                     // ignore and skip
                 }
 
-                for (PossibleValue possibleValue : possibleFieldValues) {
-                    ObjectValue objectValue = new ObjectValue(
-                            ReferenceType.POSSIBLE_VALUE,
-                            field,
-                            possibleValue
-                    );
-                    objectData.addValue(objectValue);
-                }
+                writePossibleValues(
+                        writer,
+                        node,
+                        field,
+                        possibleFieldValues,
+                        value
+                );
+            }
+        }
+    }
+
+    /*
+     * Possible values are shared by all instances of a class and are never
+     * modified; only the type of the value actually held by the field is
+     * excluded, so that edges do not depend on traversal order.
+     */
+    private void writePossibleValues(ObjectGraph.Writer writer,
+                                     int node,
+                                     Field field,
+                                     Set<PossibleValue> possibleFieldValues,
+                                     @Nullable Object value) {
+        if (possibleFieldValues.isEmpty()) {
+            return;
+        }
+        PossibleValue actualValue = value == null
+                                    ? null
+                                    : new PossibleValue(
+                                            value.getClass(),
+                                            field.getDeclaringClass()
+                                    );
+        for (PossibleValue possibleValue : possibleFieldValues) {
+            if (!possibleValue.equals(actualValue)) {
+                writer.edge(
+                        node,
+                        writer.node(possibleValue),
+                        field,
+                        ReferenceType.POSSIBLE_VALUE,
+                        false,
+                        false
+                );
             }
         }
     }
 
+    private Map<String, Set<PossibleValue>> getPossibleValues(Class<?> clazz) {
+        if (shouldIgnore(clazz)) {
+            return Collections.emptyMap();
+        }
+        return possibleValues.get(clazz);
+    }
+
+    private static Map<String, Set<PossibleValue>> immutableCopyOf(Map<String, Set<PossibleValue>> possibleValues) {
+        Map<String, Set<PossibleValue>> result = new HashMap<>();
+        possibleValues.forEach((fieldName, values) -> result.put(
+                fieldName,
+                Collections.unmodifiableSet(new LinkedHashSet<>(values))
+        ));
+        return Collections.unmodifiableMap(result);
+    }
+
     /**
      * Get max displayed references.
      *
@@ -882,4 +1985,313 @@ public class Scanner {
         this.maxReferences = maxReferences;
     }
 
+    private final class ScannerThread extends ForkJoinWorkerThread {
+
+        private final Throttle throttle = newThrottle();
+
+        private ScannerThread(ForkJoinPool pool) {
+            super(pool);
+        }
+
+    }
+
+    /**
+     * Part of large array, collection or map. Nodes of values are resolved
+     * and cascaded values are scheduled in parallel, while edges are added
+     * by owner's thread once all chunks are complete.
+     */
+    private final class ValueChunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int BACKREFERENCED = 1;
+
+        private static final int CASCADED = 2;
+
+        private final IntList backreferences = new IntList();
+
+        private final boolean entries;
+
+        private final IntList flags = new IntList();
+
+        private final boolean skipNulls;
+
+        private final IntList targets = new IntList();
+
+        private final Spliterator<?> values;
+
+        private ValueChunk(Spliterator<?> values,
+                           boolean entries,
+                           boolean skipNulls) {
+            this.values    = values;
+            this.entries   = entries;
+            this.skipNulls = skipNulls;
+        }
+
+        @Override
+        protected void compute() {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof ScannerThread) {
+                ((ScannerThread) thread).throttle.checkpoint(System.nanoTime());
+            }
+            ObjectGraph.Writer writer = graph.writer();
+            values.forEachRemaining(value -> {
+                if (entries) {
+                    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+                    add(
+                            writer,
+                            entry.getKey()
+                    );
+                    add(
+                            writer,
+                            entry.getValue()
+                    );
+                    backreferences.add(writer.node(entry.getKey()));
+                    backreferences.add(entry.getValue() != null
+                                       && !shouldIgnore(entry.getValue().getClass())
+                                       ? writer.node(entry.getValue())
+                                       : ObjectGraph.NONE);
+                } else if (value != null || !skipNulls) {
+                    add(
+                            writer,
+                            value
+                    );
+                }
+            });
+        }
+
+        private void add(ObjectGraph.Writer writer, @Nullable Object value) {
+            Object  unwrapped = unwrap(value);
+            boolean cascaded  = unwrapped != null && shouldCascade(unwrapped.getClass());
+            targets.add(writer.node(unwrapped));
+            flags.add((unwrapped != null && !shouldIgnore(unwrapped.getClass()) ? BACKREFERENCED : 0)
+                      | (cascaded ? CASCADED : 0));
+            if (cascaded && !graph.isVisited(unwrapped)) {
+                enqueue(unwrapped);
+            }
+        }
+
+    }
+
+    /**
+     * Scope propagation state. Effective scopes of nodes are kept as ranks,
+     * and every node receives the max rank of nodes referencing it, unless
+     * it has own scope.
+     */
+    private final class ScopePropagation {
+
+        private final BitSet inheriting;
+
+        private final BitSet lambdas;
+
+        private final ConcurrentBitSet queued;
+
+        private final String[] rankScopes;
+
+        private final AtomicIntegerArray ranks;
+
+        private final ConcurrentBitSet raised;
+
+        private final Map<String, AtomicInteger> scopeStats = new LinkedHashMap<>();
+
+        private ScopePropagation(int nodeCount, String[] rankScopes) {
+            this.rankScopes = rankScopes;
+            this.ranks      = new AtomicIntegerArray(nodeCount);
+            this.inheriting = new BitSet(nodeCount);
+            this.lambdas    = new BitSet(nodeCount);
+            this.queued     = new ConcurrentBitSet(nodeCount);
+            this.raised     = new ConcurrentBitSet(nodeCount);
+        }
+
+        private void add(int node, String scope, int rank) {
+            ranks.set(
+                    node,
+                    rank
+            );
+            if (!getData(node).hasOwnScope()) {
+                inheriting.set(node);
+            }
+            Object object = graph.node(node);
+            if (object != null && classTraits
+                    .get(object.getClass())
+                    .isLambda()) {
+                lambdas.set(node);
+            }
+            scopeStats.computeIfAbsent(
+                    scope,
+                    s -> new AtomicInteger(0)
+            ).incrementAndGet();
+        }
+
+        private void prepareStats() {
+            // Counters are updated concurrently, so all keys must exist
+            for (String scope : rankScopes) {
+                scopeStats.computeIfAbsent(
+                        scope,
+                        s -> new AtomicInteger(0)
+                );
+            }
+        }
+
+        private void propagate(IntList frontier,
+                               int from,
+                               int to,
+                               IntList next,
+                               Throttle throttle) {
+            for (int i = from; i < to; i++) {
+                throttle.checkpoint(System.nanoTime());
+                int node = frontier.get(i);
+                // Node raised after this point is queued again
+                queued.clear(node);
+                int rank = ranks.get(node);
+                if (rank == 0 || lambdas.get(node)) {
+                    // Do not propagate instance scope or through lambdas
+                    continue;
+                }
+                int end = graph.forwardEnd(node);
+                for (int position = graph.forwardStart(node); position < end; position++) {
+                    int target = graph.edgeTarget(graph.forwardEdge(position));
+                    if (target != ObjectGraph.NONE
+                        && inheriting.get(target)
+                        && raise(
+                            target,
+                            rank
+                    ) && queued.set(target)) {
+                        next.add(target);
+                    }
+                }
+            }
+        }
+
+        private boolean raise(int node, int rank) {
+            int current;
+            do {
+                current = ranks.get(node);
+                if (current >= rank) {
+                    return false;
+                }
+            } while (!ranks.compareAndSet(
+                    node,
+                    current,
+                    rank
+            ));
+            raised.set(node);
+            scopeStats.get(rankScopes[current]).decrementAndGet();
+            scopeStats.get(rankScopes[rank]).incrementAndGet();
+            return true;
+        }
+
+        private void apply() {
+            for (int node = raised.nextSetBit(0); node >= 0; node = raised.nextSetBit(node + 1)) {
+                graph.setInheritedScope(
+                        node,
+                        rankScopes[ranks.get(node)]
+                );
+            }
+        }
+
+        private void printStats(PrintWriter output) {
+            for (Map.Entry<String, AtomicInteger> stat : scopeStats.entrySet()) {
+                output.println(stat.getKey() + ": " + stat
+                        .getValue()
+                        .get());
+            }
+        }
+
+    }
+
+    /**
+     * Part of scope propagation frontier. Returns next frontier.
+     */
+    private final class PropagationTask extends RecursiveTask<IntList> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final IntList frontier;
+
+        private final ScopePropagation propagation;
+
+        private final int to;
+
+        private PropagationTask(ScopePropagation propagation,
+                                IntList frontier,
+                                int from,
+                                int to) {
+            this.propagation = propagation;
+            this.frontier    = frontier;
+            this.from        = from;
+            this.to          = to;
+        }
+
+        @Override
+        protected IntList compute() {
+            if (to - from <= PROPAGATION_CHUNK_SIZE) {
+                Thread  thread = Thread.currentThread();
+                IntList next   = new IntList();
+                propagation.propagate(
+                        frontier,
+                        from,
+                        to,
+                        next,
+                        thread instanceof ScannerThread
+                        ? ((ScannerThread) thread).throttle
+                        : newThrottle()
+                );
+                return next;
+            }
+            int             middle = (from + to) >>> 1;
+            PropagationTask left   = new PropagationTask(
+                    propagation,
+                    frontier,
+                    from,
+                    middle
+            );
+            left.fork();
+            IntList next = new PropagationTask(
+                    propagation,
+                    frontier,
+                    middle,
+                    to
+            ).compute();
+            IntList leftNext = left.join();
+            for (int i = 0; i < next.size(); i++) {
+                leftNext.add(next.get(i));
+            }
+            return leftNext;
+        }
+
+    }
+
+    private final class VisitTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object objectToVisit;
+
+        private VisitTask(Object objectToVisit) {
+            this.objectToVisit = objectToVisit;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Thread thread = Thread.currentThread();
+                if (thread instanceof ScannerThread) {
+                    ((ScannerThread) thread).throttle.checkpoint(System.nanoTime());
+                }
+                if (!cancelled) {
+                    visitQueued(objectToVisit);
+                }
+            } catch (Throwable e) {
+                traversalFailure.compareAndSet(
+                        null,
+                        e
+                );
+            }
+        }
+
+    }
+
 }
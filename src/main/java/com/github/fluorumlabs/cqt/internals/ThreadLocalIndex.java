@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import com.github.fluorumlabs.cqt.utils.Unreflection;
+
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Snapshot of values of all thread locals in all threads, taken once per
+ * scan from {@code ThreadLocalMap} tables of every live thread.
+ */
+final class ThreadLocalIndex {
+
+    private final Map<ThreadLocal<?>, List<Entry>> entries = new IdentityHashMap<>();
+
+    @Nullable
+    private Field valueField;
+
+    /**
+     * Take snapshot of thread locals of all threads.
+     */
+    ThreadLocalIndex() {
+        for (Thread thread : allThreads()) {
+            Object threadLocals = readDeclaredField(
+                    thread,
+                    "threadLocals"
+            );
+            if (threadLocals != null) {
+                addEntries(
+                        thread,
+                        threadLocals
+                );
+            }
+        }
+    }
+
+    private static List<Thread> allThreads() {
+        // Get the root ThreadGroup
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+        // Collect all Thread instances out there
+        List<Thread>       allThreads = new ArrayList<>();
+        Queue<ThreadGroup> queue      = new ArrayDeque<>();
+        queue.add(group);
+
+        while (queue.peek() != null) {
+            ThreadGroup poll = queue.poll();
+            synchronized (poll) {
+                int ngroups = readDeclaredField(
+                        poll,
+                        "ngroups"
+                );
+                ThreadGroup[] groups = readDeclaredField(
+                        poll,
+                        "groups"
+                );
+                int nthreads = readDeclaredField(
+                        poll,
+                        "nthreads"
+                );
+                Thread[] threads = readDeclaredField(
+                        poll,
+                        "threads"
+                );
+                if (groups != null && ngroups > 0) {
+                    queue.addAll(Arrays.asList(groups).subList(
+                            0,
+                            ngroups
+                    ));
+                }
+                if (threads != null && nthreads > 0) {
+                    allThreads.addAll(Arrays.asList(threads).subList(
+                            0,
+                            nthreads
+                    ));
+                }
+            }
+        }
+        return allThreads;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readDeclaredField(Object instance, String field) {
+        Class<?> visitingClass = instance.getClass();
+
+        while (visitingClass != null && !Object.class.equals(visitingClass)) {
+            Field declaredField = null;
+            try {
+                declaredField = Unreflection.getDeclaredField(
+                        visitingClass,
+                        field
+                );
+            } catch (NoSuchFieldException e) {
+                // ignore
+            }
+            if (declaredField != null) {
+                declaredField.setAccessible(true);
+                try {
+                    return (T) declaredField.get(instance);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(
+                            "Unable to read ThreadGroup." + field,
+                            e
+                    );
+                }
+            }
+            visitingClass = visitingClass.getSuperclass();
+        }
+        throw new IllegalStateException("Cannot find ThreadGroup." + field);
+    }
+
+    private void addEntries(Thread thread, Object threadLocals) {
+        Object[] table = readDeclaredField(
+                threadLocals,
+                "table"
+        );
+        if (table == null) {
+            return;
+        }
+        Thread.State state = thread.getState();
+        for (Object entry : table) {
+            if (entry == null) {
+                continue;
+            }
+            ThreadLocal<?> threadLocal = (ThreadLocal<?>) ((Reference<?>) entry).get();
+            if (threadLocal != null) {
+                entries
+                        .computeIfAbsent(
+                                threadLocal,
+                                t -> new ArrayList<>()
+                        )
+                        .add(new Entry(
+                                state,
+                                readValue(entry)
+                        ));
+            }
+        }
+    }
+
+    @Nullable
+    private Object readValue(Object entry) {
+        // All entries share the same class
+        if (valueField == null) {
+            try {
+                valueField = Unreflection.getDeclaredField(
+                        entry.getClass(),
+                        "value"
+                );
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException(
+                        "Cannot find ThreadLocalMap.Entry.value",
+                        e
+                );
+            }
+            valueField.setAccessible(true);
+        }
+        try {
+            return valueField.get(entry);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(
+                    "Unable to read ThreadLocalMap.Entry.value",
+                    e
+            );
+        }
+    }
+
+    /**
+     * Get values of thread local in all threads where it is set.
+     *
+     * @param threadLocal the thread local
+     *
+     * @return the entries
+     */
+    List<Entry> get(ThreadLocal<?> threadLocal) {
+        return entries.getOrDefault(
+                threadLocal,
+                Collections.emptyList()
+        );
+    }
+
+    /**
+     * Value of thread local in a specific thread.
+     */
+    static final class Entry {
+
+        private final Thread.State state;
+
+        @Nullable
+        private final Object value;
+
+        private Entry(Thread.State state, @Nullable Object value) {
+            this.state = state;
+            this.value = value;
+        }
+
+        /**
+         * Get state of thread at the moment of snapshot.
+         *
+         * @return the thread state
+         */
+        Thread.State getState() {
+            return state;
+        }
+
+        /**
+         * Get value of thread local.
+         *
+         * @return the value
+         */
+        @Nullable
+        Object getValue() {
+            return value;
+        }
+
+    }
+
+}
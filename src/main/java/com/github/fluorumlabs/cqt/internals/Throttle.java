@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Artem Godin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.fluorumlabs.cqt.internals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits share of CPU time used by a thread: after each slice of work the
+ * thread is paused long enough to keep the configured duty cycle of shared
+ * {@link Budget}. Work of a slice is measured as CPU time of the thread
+ * when supported, so that time spent waiting is not accounted. Instances are
+ * not thread-safe and should be used by a single thread.
+ */
+final class Throttle {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Budget budget;
+
+    private long sliceCpuStart;
+
+    private long sliceStart;
+
+    /**
+     * Instantiates a new throttle.
+     *
+     * @param budget the budget shared by throttled threads
+     */
+    Throttle(Budget budget) {
+        this.budget        = budget;
+        this.sliceStart    = System.nanoTime();
+        this.sliceCpuStart = cpuTime();
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Pause current thread if current slice is over.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    void checkpoint(long now) {
+        long slice = now - sliceStart;
+        if (slice >= budget.maxSlice) {
+            long cpuTime = cpuTime();
+            long pause   = budget.consume(
+                    now,
+                    cpuTime < 0 || sliceCpuStart < 0 ? slice : Math.min(
+                            slice,
+                            cpuTime - sliceCpuStart
+                    )
+            );
+            if (pause > 0) {
+                LockSupport.parkNanos(pause);
+            }
+            sliceStart    = System.nanoTime();
+            sliceCpuStart = cpuTime();
+        }
+    }
+
+    /**
+     * CPU time budget shared by all threads of a scanner, so that the
+     * threads together are busy only {@code dutyCycle} share of time of a
+     * single core. Work of every slice is accounted on a shared timeline,
+     * and threads pause until the timeline catches up with their work.
+     */
+    static final class Budget {
+
+        private final AtomicLong consumedUntil = new AtomicLong(System.nanoTime());
+
+        private final double dutyCycle;
+
+        private final long maxSlice;
+
+        /**
+         * Instantiates a new budget.
+         *
+         * @param dutyCycle the share of time spent working, from {@code 0}
+         *                  (exclusive) to {@code 1} (no throttling)
+         * @param maxSlice  the max length of work slice in nanoseconds
+         */
+        Budget(double dutyCycle, long maxSlice) {
+            this.dutyCycle = dutyCycle;
+            this.maxSlice  = maxSlice;
+        }
+
+        private long consume(long now, long work) {
+            long cost = (long) (work / dutyCycle);
+            // Idle time before the slice is not accumulated as credit
+            long until = consumedUntil.updateAndGet(consumed -> Math.max(
+                    consumed,
+                    now - work
+            ) + cost);
+            return until - now;
+        }
+
+    }
+
+}
@@ -222,6 +222,33 @@ public final class Unreflection {
         }
     }
 
+    /**
+     * Get getter of instance field. Returned handle is of type {@code
+     * (Object)Object}.
+     *
+     * @param field the field
+     *
+     * @return the getter method handle
+     */
+    public static MethodHandle getFieldGetter(Field field) {
+        try {
+            return lookupAll()
+                    .unreflectGetter(field)
+                    .asType(MethodType.methodType(
+                            Object.class,
+                            Object.class
+                    ));
+        } catch (Throwable e) {
+            throw new UnsupportedOperationException(
+                    "Cannot get getter of field "
+                    + field.getName()
+                    + " of "
+                    + field.getDeclaringClass().getName(),
+                    e
+            );
+        }
+    }
+
     /*
      * Accessor for LOOKUP_TRUSTED. This can be used instead of MethodHandles.lookup() / MethodHandles.publicLookup(),
      * if unrestricted access is required